@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.mapping.DynamicMapping;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.obiba.es.mica.ESRequestOptions.Operation;
+import org.obiba.mica.spi.search.Searcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compiles the id filters on any field but "id" into a single terms query. Large id sets are not inlined in each
+ * request: they are stored once in a lookup document, identified by the hash of the field and of the set content, and
+ * the terms query refers to it. The stored lookups are remembered by content, so that a filter with the same ids makes
+ * no request to store them again, and their documents are marked as used at most once per touch interval. The lookup
+ * documents that were not used for a while are deleted.
+ */
+class ESIdFilterCompiler {
+
+  private static final Logger log = LoggerFactory.getLogger(ESIdFilterCompiler.class);
+
+  static final String LOOKUP_INDEX = "mica-terms-lookup";
+
+  private static final String LOOKUP_PATH = "ids";
+
+  private static final String LAST_USED = "lastUsed";
+
+  private static final long CLEANUP_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+  private static final long TOUCH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+  private final ESSearchEngineService esSearchService;
+
+  private final int lookupThreshold;
+
+  private final int lookupTtl;
+
+  // dropped when not used within the touch interval: a remembered lookup document is always touched before it expires
+  private final Cache<String, Lookup> lookups = CacheBuilder.newBuilder()
+      .expireAfterAccess(TOUCH_INTERVAL, TimeUnit.MILLISECONDS)
+      .build();
+
+  private volatile boolean lookupIndexReady = false;
+
+  private volatile long nextCleanup = 0;
+
+  ESIdFilterCompiler(ESSearchEngineService esSearchService) {
+    this.esSearchService = esSearchService;
+    this.lookupThreshold = esSearchService.getTermsLookupThreshold();
+    // longer than two touch intervals, the time a remembered lookup document can go without being touched
+    this.lookupTtl = Math.max(3, esSearchService.getTermsLookupTtl());
+  }
+
+  Query compile(Searcher.IdFilter idFilter) {
+    String field = idFilter.getField();
+    TreeSet<String> ids = idFilter.getValues().stream()
+        .filter(Objects::nonNull)
+        .collect(Collectors.toCollection(TreeSet::new));
+
+    if (lookupThreshold > 0 && ids.size() > lookupThreshold) {
+      try {
+        return getLookup(field, ids).query;
+      } catch (IOException | ElasticsearchException e) {
+        log.warn("Failed to store the terms lookup of {} ids, inlining them - {}", ids.size(), e.getMessage());
+      }
+    }
+
+    List<FieldValue> values = ids.stream().map(FieldValue::of).collect(Collectors.toList());
+    return TermsQuery.of(q -> q.field(field).terms(t -> t.value(values)))._toQuery();
+  }
+
+  //
+  // Private methods
+  //
+
+  /**
+   * Lookup of the id set: stored if it was not already, touched if it was not used within the touch interval.
+   */
+  private Lookup getLookup(String field, TreeSet<String> ids) throws IOException {
+    Hasher hasher = Hashing.murmur3_128().newHasher().putString(field, StandardCharsets.UTF_8);
+    ids.forEach(id -> hasher.putInt(id.length()).putString(id, StandardCharsets.UTF_8));
+    String lookupId = hasher.hash().toString();
+
+    long now = System.currentTimeMillis();
+    Lookup lookup = lookups.getIfPresent(lookupId);
+    if (lookup == null) {
+      storeLookup(lookupId, ids, now);
+      lookup = new Lookup(field, lookupId, now);
+      lookups.put(lookupId, lookup);
+    } else if (now - lookup.lastUsed >= TOUCH_INTERVAL) {
+      touchLookup(lookupId, ids, now);
+      lookup.lastUsed = now;
+    }
+    return lookup;
+  }
+
+  /**
+   * Store the id set in a lookup document, replacing the identical set that may have been stored by another node. The
+   * terms lookup gets the document in real time, no refresh is needed.
+   */
+  private void storeLookup(String lookupId, TreeSet<String> ids, long now) throws IOException {
+    ElasticsearchClient client = esSearchService.getClient(Operation.INDEX);
+    ensureLookupIndex(client);
+    deleteExpiredLookups(client);
+    client.index(i -> i.index(LOOKUP_INDEX)
+        .id(lookupId)
+        .document(ImmutableMap.of(LOOKUP_PATH, ids, LAST_USED, now)));
+  }
+
+  /**
+   * Mark the lookup document as used, or store it again if it was deleted in the meantime.
+   */
+  private void touchLookup(String lookupId, TreeSet<String> ids, long now) throws IOException {
+    ElasticsearchClient client = esSearchService.getClient(Operation.INDEX);
+    deleteExpiredLookups(client);
+    try {
+      client.update(u -> u.index(LOOKUP_INDEX)
+          .id(lookupId)
+          .doc(ImmutableMap.of(LAST_USED, now)), Object.class);
+    } catch (ElasticsearchException e) {
+      if (e.status() != 404)
+        throw e;
+      storeLookup(lookupId, ids, now);
+    }
+  }
+
+  /**
+   * Delete the lookup documents not used within the time to live, at most once per cleanup interval.
+   */
+  private void deleteExpiredLookups(ElasticsearchClient client) {
+    long now = System.currentTimeMillis();
+    if (now < nextCleanup)
+      return;
+    nextCleanup = now + CLEANUP_INTERVAL;
+
+    try {
+      client.deleteByQuery(d -> d.index(LOOKUP_INDEX)
+          .conflicts(Conflicts.Proceed)
+          .waitForCompletion(false)
+          .query(q -> q.range(r -> r.date(dr -> dr.field(LAST_USED).lt("now-" + lookupTtl + "h")))));
+    } catch (IOException | ElasticsearchException e) {
+      log.warn("Failed to delete the expired terms lookups - {}", e.getMessage());
+    }
+  }
+
+  private synchronized void ensureLookupIndex(ElasticsearchClient client) throws IOException {
+    if (lookupIndexReady)
+      return;
+
+    if (!client.indices().exists(e -> e.index(LOOKUP_INDEX)).value()) {
+      // lookup documents are only read from their source, a copy on each node saves a network hop
+      client.indices().create(c -> c.index(LOOKUP_INDEX)
+          .settings(s -> s.numberOfShards("1").autoExpandReplicas("0-all"))
+          .mappings(m -> m.dynamic(DynamicMapping.False)
+              .properties(LAST_USED, p -> p.date(dt -> dt))));
+    }
+    lookupIndexReady = true;
+  }
+
+  private static final class Lookup {
+
+    private final Query query;
+
+    private volatile long lastUsed;
+
+    private Lookup(String field, String lookupId, long lastUsed) {
+      this.query = TermsQuery.of(q -> q.field(field)
+          .terms(t -> t.lookup(l -> l.index(LOOKUP_INDEX).id(lookupId).path(LOOKUP_PATH))))._toQuery();
+      this.lastUsed = lastUsed;
+    }
+  }
+}
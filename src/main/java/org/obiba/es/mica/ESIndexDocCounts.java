@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica;
+
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.elasticsearch.core.TimeValue;
+import org.obiba.es.mica.ESRequestOptions.Operation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Count of the documents of each index, the total that a global aggregation gives. The counts are cached for a while
+ * and dropped when the index is written. A write is only visible to the searches after the next refresh of the index,
+ * so the counts taken within the refresh interval of the index after a write are not cached. The writes of the other
+ * nodes are not known: they are seen when the cached count expires.
+ */
+class ESIndexDocCounts {
+
+  private static final Logger log = LoggerFactory.getLogger(ESIndexDocCounts.class);
+
+  private static final String REFRESH_INTERVAL = "index.refresh_interval";
+
+  // default refresh interval of the indices
+  private static final long DEFAULT_REFRESH_INTERVAL = 1000;
+
+  private static final long REFRESH_MARGIN = 1000;
+
+  private final ESSearchEngineService esSearchService;
+
+  private final Cache<String, Long> counts;
+
+  // refresh interval of the index with a margin, by index name
+  private final Cache<String, Long> refreshDelays = CacheBuilder.newBuilder()
+      .expireAfterWrite(10, TimeUnit.MINUTES)
+      .build();
+
+  // time of the last write, by index name
+  private final Map<String, Long> writes = new ConcurrentHashMap<>();
+
+  ESIndexDocCounts(ESSearchEngineService esSearchService, int ttlSeconds) {
+    this.esSearchService = esSearchService;
+    this.counts = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+        .build();
+  }
+
+  /**
+   * Count of the documents of the index, the failure to get it is propagated.
+   */
+  long get(String indexName) {
+    Long count = counts.getIfPresent(indexName);
+    if (count != null)
+      return count;
+
+    long start = System.currentTimeMillis();
+    long indexCount;
+    try {
+      indexCount = esSearchService.getClient(Operation.SEARCH).count(r -> r.index(indexName)).count();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to count the documents of " + indexName, e);
+    }
+
+    Long written = writes.get(indexName);
+    if (written == null) {
+      counts.put(indexName, indexCount);
+    } else if (start - written > getRefreshDelay(indexName)) {
+      writes.remove(indexName, written);
+      counts.put(indexName, indexCount);
+    }
+    return indexCount;
+  }
+
+  void invalidate(String indexName) {
+    writes.put(indexName, System.currentTimeMillis());
+    counts.invalidate(indexName);
+  }
+
+  //
+  // Private methods
+  //
+
+  /**
+   * Time after which a write is visible to the searches, unbounded if the refresh of the index is disabled or if its
+   * settings cannot be read.
+   */
+  private long getRefreshDelay(String indexName) {
+    try {
+      return refreshDelays.get(indexName, () -> readRefreshDelay(indexName));
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      log.warn("Failed to read the refresh interval of {} - {}", indexName, e.getCause().getMessage());
+      return Long.MAX_VALUE;
+    }
+  }
+
+  private long readRefreshDelay(String indexName) throws IOException {
+    GetIndicesSettingsResponse response = esSearchService.getClient(Operation.SEARCH).indices()
+        .getSettings(r -> r.index(indexName).name(REFRESH_INTERVAL));
+    long interval = DEFAULT_REFRESH_INTERVAL;
+    for (IndexState state : response.result().values()) {
+      IndexSettings settings = state.settings();
+      Time refreshInterval = settings == null ? null
+          : settings.index() == null ? settings.refreshInterval() : settings.index().refreshInterval();
+      if (refreshInterval != null && refreshInterval.isTime()) {
+        long millis = TimeValue.parseTimeValue(refreshInterval.time(), REFRESH_INTERVAL).millis();
+        if (millis < 0)
+          return Long.MAX_VALUE;
+        interval = Math.max(interval, millis);
+      }
+    }
+    return interval + REFRESH_MARGIN;
+  }
+}
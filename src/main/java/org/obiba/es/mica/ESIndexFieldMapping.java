@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica;
+
+import org.obiba.mica.spi.search.IndexFieldMapping;
+
+/**
+ * Index field mapping that also tells which optional subfields were mapped.
+ */
+public interface ESIndexFieldMapping extends IndexFieldMapping {
+
+  /**
+   * Name of the wildcard-type subfield of the keyword fields, optionally mapped to run arbitrary like() patterns.
+   */
+  String WILDCARD_SUBFIELD = "wildcard";
+
+  boolean hasSubfield(String fieldName, String subfieldName);
+
+}
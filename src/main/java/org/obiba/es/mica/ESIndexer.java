@@ -18,6 +18,8 @@ import com.jayway.jsonpath.JsonPath;
 import com.jayway.jsonpath.Option;
 import com.jayway.jsonpath.ReadContext;
 
+import org.obiba.es.mica.mapping.AbstractIndexConfiguration;
+import org.obiba.es.mica.mapping.IndexConfigurationRegistry;
 import org.obiba.mica.spi.search.IndexFieldMapping;
 import org.obiba.mica.spi.search.Indexable;
 import org.obiba.mica.spi.search.Indexer;
@@ -26,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Persistable;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.mapping.KeywordProperty;
 import co.elastic.clients.elasticsearch._types.mapping.Property;
 import co.elastic.clients.elasticsearch.core.BulkRequest;
@@ -52,6 +55,7 @@ import java.io.StringReader;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ESIndexer implements Indexer {
 
@@ -59,8 +63,20 @@ public class ESIndexer implements Indexer {
 
   private static final int MAX_SIZE = 10000;
 
+  private static final String SETTINGS_TEMPLATE = "mica-settings";
+
+  private static final String INDEX_TEMPLATE_PREFIX = "mica-";
+
+  private static final long INDEX_TEMPLATE_PRIORITY = 500;
+
   private final ESSearchEngineService esSearchService;
 
+  // mapping of the registered index templates, by index name
+  private final Map<String, String> templateMappings = new ConcurrentHashMap<>();
+
+  // whether all the templates were registered, they are put again on the next index creation otherwise
+  private boolean templatesRegistered = false;
+
   public ESIndexer(ESSearchEngineService esSearchService) {
     this.esSearchService = esSearchService;
   }
@@ -82,6 +98,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to index {} in index {} - {}", persistable.getId(), indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -101,6 +118,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to index {} in index {} - {}", indexable.getId(), indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -138,7 +156,7 @@ public class ESIndexer implements Indexer {
     }
 
     try {
-      BulkResponse bulkresponse = getClient().bulk(br.build());
+      BulkResponse bulkresponse = getClient(ESRequestOptions.Operation.BULK).bulk(br.build());
 
       if (bulkresponse.errors()) {
         for (BulkResponseItem item : bulkresponse.items()) {
@@ -151,6 +169,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to bulk index {} - {}", indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -173,7 +192,7 @@ public class ESIndexer implements Indexer {
     }
 
     try {
-      BulkResponse bulkresponse = getClient().bulk(br.build());
+      BulkResponse bulkresponse = getClient(ESRequestOptions.Operation.BULK).bulk(br.build());
 
       if (bulkresponse.errors()) {
         for (BulkResponseItem item : bulkresponse.items()) {
@@ -186,6 +205,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to bulk index {} - {}", indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -196,6 +216,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to delete document in index {} - {}", persistable.getId(), indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -206,6 +227,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to delete document in index {} - {}", indexable.getId(), indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -224,6 +246,7 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to delete document by query in index {} - {}", indexName, e);
     }
+    invalidateDocCount(indexName);
   }
 
   @Override
@@ -250,6 +273,39 @@ public class ESIndexer implements Indexer {
     } catch (IOException e) {
       log.error("Failed to drop index index {} - {}", indexName, e);
     }
+    invalidateDocCount(indexName);
+  }
+
+  /**
+   * Register the index settings as a component template and one composable index template per index of the
+   * configurations, so that an index is created with its final settings and mapping in a single request. The indices
+   * without template get their mapping put after their creation.
+   *
+   * @return whether all the templates were registered
+   */
+  synchronized boolean putIndexTemplates() {
+    if (getClient() == null)
+      return false;
+
+    try {
+      IndexSettings settings = getIndexSettings();
+      getClient().cluster().putComponentTemplate(r -> r.name(SETTINGS_TEMPLATE).template(t -> t.settings(settings)));
+    } catch (IOException | ElasticsearchException e) {
+      log.warn("Failed to put the index settings template - {}", e.getMessage());
+      return false;
+    }
+
+    boolean registered = true;
+    IndexConfigurationRegistry registry = esSearchService.getIndexConfigurationRegistry();
+    for (String indexName : registry.getIndexNames()) {
+      try {
+        putIndexTemplate(registry.getConfiguration(indexName), indexName);
+      } catch (IOException | RuntimeException e) {
+        log.warn("Failed to put the index template of {} - {}", indexName, e.getMessage());
+        registered = false;
+      }
+    }
+    return registered;
   }
 
   @Override
@@ -321,10 +377,21 @@ public class ESIndexer implements Indexer {
     return result;
   }
 
+  /**
+   * The cached count of documents of the index is no longer valid after a write.
+   */
+  private void invalidateDocCount(String indexName) {
+    esSearchService.getIndexDocCounts().invalidate(indexName);
+  }
+
   private ElasticsearchClient getClient() {
     return esSearchService.getClient();
   }
 
+  private ElasticsearchClient getClient(ESRequestOptions.Operation operation) {
+    return esSearchService.getClient(operation);
+  }
+
   private String toJson(Object obj) {
     try {
       return esSearchService.getObjectMapper().writeValueAsString(obj);
@@ -351,20 +418,22 @@ public class ESIndexer implements Indexer {
     if (!hasIndex(indexName)) {
       log.info("Creating index {}", indexName);
 
-      IndexSettings.Builder indexSettingsBuilder = new IndexSettings.Builder();
+      // registered on the first index creation, once connected to the cluster
+      if (esSearchService.isIndexTemplates() && !templatesRegistered)
+        templatesRegistered = putIndexTemplates();
 
-      if (!esSearchService.getIndexSettings().equals("{}")) {
-        indexSettingsBuilder.withJson(new StringReader(esSearchService.getIndexSettings()));
-      }
-
-      IndexSettings settings = indexSettingsBuilder
-          .numberOfReplicas(Integer.toString(esSearchService.getNbReplicas()))
-          .numberOfShards(Integer.toString(esSearchService.getNbShards())).build();
       try {
+        if (refreshIndexTemplate(indexName)) {
+          // settings and mapping are applied by the templates
+          CreateIndexResponse createdResponse = indicesAdmin.create(CreateIndexRequest.of(r -> r.index(indexName)));
+          esSearchService.getIndexConfigurationRegistry().onIndexCreated(esSearchService, indexName, true);
+          return createdResponse;
+        }
+
+        IndexSettings settings = getIndexSettings();
         CreateIndexResponse createdResponse = indicesAdmin
             .create(CreateIndexRequest.of(r -> r.index(indexName).settings(settings)));
-        esSearchService.getIndexConfigurationListeners()
-            .forEach(listener -> listener.onIndexCreated(esSearchService, indexName));
+        esSearchService.getIndexConfigurationRegistry().onIndexCreated(esSearchService, indexName);
 
         return createdResponse;
       } catch (IOException e) {
@@ -375,7 +444,55 @@ public class ESIndexer implements Indexer {
     return null;
   }
 
-  private static class IndexFieldMappingImpl implements IndexFieldMapping {
+  private IndexSettings getIndexSettings() {
+    IndexSettings.Builder indexSettingsBuilder = new IndexSettings.Builder();
+
+    if (!esSearchService.getIndexSettings().equals("{}")) {
+      indexSettingsBuilder.withJson(new StringReader(esSearchService.getIndexSettings()));
+    }
+
+    return indexSettingsBuilder
+        .numberOfReplicas(Integer.toString(esSearchService.getNbReplicas()))
+        .numberOfShards(Integer.toString(esSearchService.getNbShards())).build();
+  }
+
+  /**
+   * Put the index template again if the mapping of the index has changed since it was registered (the taxonomies or
+   * the locales were modified).
+   *
+   * @return whether an index template applies to the index
+   */
+  private boolean refreshIndexTemplate(String indexName) {
+    String templateMapping = templateMappings.get(indexName);
+    if (templateMapping == null)
+      return false;
+
+    AbstractIndexConfiguration configuration = esSearchService.getIndexConfigurationRegistry()
+        .getConfiguration(indexName);
+    try {
+      // the mapping is cached by the configuration, same instance when unchanged
+      String mapping = configuration.getMapping(indexName);
+      if (!mapping.equals(templateMapping))
+        putIndexTemplate(configuration, indexName);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to refresh the index template of {} - {}", indexName, e.getMessage());
+      templateMappings.remove(indexName);
+      return false;
+    }
+    return true;
+  }
+
+  private void putIndexTemplate(AbstractIndexConfiguration configuration, String indexName) throws IOException {
+    String mapping = configuration.getMapping(indexName);
+    getClient().indices().putIndexTemplate(r -> r.name(INDEX_TEMPLATE_PREFIX + indexName)
+        .indexPatterns(indexName)
+        .composedOf(SETTINGS_TEMPLATE)
+        .priority(INDEX_TEMPLATE_PRIORITY)
+        .template(t -> t.mappings(m -> m.withJson(new StringReader(mapping)))));
+    templateMappings.put(indexName, mapping);
+  }
+
+  private static class IndexFieldMappingImpl implements ESIndexFieldMapping {
 
     private final ReadContext context;
 
@@ -394,6 +511,15 @@ public class ESIndexer implements Indexer {
       return analyzed;
     }
 
+    @Override
+    public boolean hasSubfield(String fieldName, String subfieldName) {
+      if (context == null)
+        return false;
+      List<Object> result = context.read(String.format("$..%s.fields.%s", fieldName.replaceAll("\\.", ".."),
+          subfieldName));
+      return result.size() > 0;
+    }
+
   }
 
 }
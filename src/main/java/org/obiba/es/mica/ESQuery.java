@@ -10,7 +10,7 @@
 
 package org.obiba.es.mica;
 
-import org.elasticsearch.search.sort.SortBuilder;
+import co.elastic.clients.elasticsearch._types.SortOptions;
 import org.obiba.mica.spi.search.support.Query;
 
 import java.util.List;
@@ -23,6 +23,6 @@ public interface ESQuery extends Query {
 
   boolean hasSortBuilders();
 
-  List<SortBuilder> getSortBuilders();
+  List<SortOptions> getSortBuilders();
 
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica;
+
+import co.elastic.clients.transport.TransportOptions;
+import co.elastic.clients.transport.rest_client.RestClientOptions;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClientBuilder;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Transport options applied per type of operation: response buffer limit (larger responses are rejected instead of
+ * exhausting the heap), socket timeout and an opaque id header that identifies the operation in the Elasticsearch
+ * tasks and slow logs.
+ */
+class ESRequestOptions {
+
+  enum Operation {
+    SEARCH, AGGREGATION, BULK, INDEX
+  }
+
+  private static final String OPAQUE_ID_HEADER = "X-Opaque-Id";
+
+  private final Map<Operation, TransportOptions> options = new EnumMap<>(Operation.class);
+
+  private ESRequestOptions() {
+  }
+
+  TransportOptions get(Operation operation) {
+    return options.get(operation);
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  static class Builder {
+
+    private final Map<Operation, Integer> bufferLimits = new EnumMap<>(Operation.class);
+
+    private final Map<Operation, Integer> timeouts = new EnumMap<>(Operation.class);
+
+    Builder bufferLimit(Operation operation, int bytes) {
+      bufferLimits.put(operation, bytes);
+      return this;
+    }
+
+    /**
+     * Socket timeout in milliseconds, a value not greater than zero keeps the client default.
+     */
+    Builder timeout(Operation operation, int millis) {
+      timeouts.put(operation, millis);
+      return this;
+    }
+
+    ESRequestOptions build() {
+      ESRequestOptions requestOptions = new ESRequestOptions();
+      for (Operation operation : Operation.values()) {
+        RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
+        builder.addHeader(OPAQUE_ID_HEADER, "mica-" + operation.name().toLowerCase());
+
+        if (bufferLimits.containsKey(operation)) {
+          builder.setHttpAsyncResponseConsumerFactory(
+              new HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory(bufferLimits.get(operation)));
+        }
+
+        int timeout = timeouts.getOrDefault(operation, 0);
+        if (timeout > 0) {
+          builder.setRequestConfig(RequestConfig.custom()
+              .setConnectTimeout(RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS)
+              .setSocketTimeout(timeout)
+              .build());
+        }
+
+        requestOptions.options.put(operation, new RestClientOptions.Builder(builder).build());
+      }
+      return requestOptions;
+    }
+  }
+}
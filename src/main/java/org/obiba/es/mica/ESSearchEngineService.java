@@ -11,12 +11,16 @@
 package org.obiba.es.mica;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch.core.search.TrackHits;
 import co.elastic.clients.json.jackson.JacksonJsonpMapper;
 import co.elastic.clients.transport.rest_client.RestClientTransport;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import net.minidev.json.JSONObject;
@@ -27,14 +31,21 @@ import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.xcontent.XContentType;
+import org.obiba.es.mica.mapping.AbstractIndexConfiguration;
 import org.obiba.es.mica.mapping.DatasetIndexConfiguration;
 import org.obiba.es.mica.mapping.FileIndexConfiguration;
+import org.obiba.es.mica.mapping.IndexConfigurationRegistry;
 import org.obiba.es.mica.mapping.NetworkIndexConfiguration;
 import org.obiba.es.mica.mapping.PersonIndexConfiguration;
 import org.obiba.es.mica.mapping.ProjectIndexConfiguration;
 import org.obiba.es.mica.mapping.StudyIndexConfiguration;
 import org.obiba.es.mica.mapping.TaxonomyIndexConfiguration;
 import org.obiba.es.mica.mapping.VariableIndexConfiguration;
+import org.obiba.es.mica.query.DefaultRQLCostEstimator;
+import org.obiba.es.mica.query.RQLCostEstimator;
+import org.obiba.es.mica.query.RQLQueryGuard;
+import org.obiba.es.mica.results.ESColumnarTermsAggregation;
+import org.obiba.es.mica.results.ESDocumentTermsAggregation;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.SearchEngineService;
@@ -47,13 +58,17 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import static java.util.stream.Collectors.toList;
@@ -68,6 +83,11 @@ public class ESSearchEngineService implements SearchEngineService {
   private static final int DEFAULT_MAX_RETIRES = 10;
   private static final int DEFAULT_INITIAL_BACKOFF = 1000; // Miliseconds
   private static final int DEFAULT_BACKOFF_MULTIPLIER = 2;
+  private static final int DEFAULT_BUFFER_LIMIT_BYTES = 250 * 1024 * 1024;
+  private static final int DEFAULT_TERMS_LOOKUP_THRESHOLD = 10000;
+  private static final int DEFAULT_TERMS_LOOKUP_TTL = 24; // Hours
+  private static final int DEFAULT_QUERY_COST_BUDGET = 10000;
+  private static final int DEFAULT_DOC_COUNT_TTL = 60; // Seconds
 
   private Properties properties;
 
@@ -77,6 +97,15 @@ public class ESSearchEngineService implements SearchEngineService {
 
   private ElasticsearchClient client;
 
+  // client of each type of operation, with its transport options, built once connected
+  private volatile Map<ESRequestOptions.Operation, ElasticsearchClient> operationClients = Collections.emptyMap();
+
+  private ESRequestOptions requestOptions;
+
+  private RQLQueryGuard queryGuard = RQLQueryGuard.UNLIMITED;
+
+  private ESIndexDocCounts indexDocCounts;
+
   private ESIndexer esIndexer;
 
   private ESSearcher esSearcher;
@@ -85,10 +114,14 @@ public class ESSearchEngineService implements SearchEngineService {
 
   private Set<Indexer.IndexConfigurationListener> indexConfigurationListeners;
 
+  private IndexConfigurationRegistry indexConfigurationRegistry;
+
   private String indexSettings = "{}";
 
   private ObjectMapper yamlObjectMapper = new ObjectMapper(new YAMLFactory());
 
+  private final Map<String, TrackHits> trackTotalHits = new ConcurrentHashMap<>();
+
   private final AtomicBoolean stopRetries = new AtomicBoolean(false); // Flag to stop retries
 
   @Override
@@ -124,13 +157,19 @@ public class ESSearchEngineService implements SearchEngineService {
     // do init stuff
     if (properties != null) {
       Settings.Builder builder = getSettings();
-      createTransportClient(builder);
 
+      // before the client connects, the operation clients are built from these options
       String bufferLimitBytes = builder.build().get("http.max_content_length_bytes");
+      requestOptions = createRequestOptions(bufferLimitBytes == null || bufferLimitBytes.isEmpty()
+        ? DEFAULT_BUFFER_LIMIT_BYTES : Integer.parseInt(bufferLimitBytes));
+
+      createTransportClient(builder);
+
+      queryGuard = createQueryGuard();
+      indexDocCounts = new ESIndexDocCounts(this, getIntProperty("docCountTtl", DEFAULT_DOC_COUNT_TTL));
 
       esIndexer = new ESIndexer(this);
-      esSearcher = new ESSearcher(this, bufferLimitBytes == null || bufferLimitBytes.isEmpty() ? 250 * 1024 * 1024
-        : Integer.parseInt(bufferLimitBytes));
+      esSearcher = new ESSearcher(this);
 
       running = true;
     }
@@ -151,6 +190,7 @@ public class ESSearchEngineService implements SearchEngineService {
     }
     esNode = null;
     client = null;
+    operationClients = Collections.emptyMap();
   }
 
   @Override
@@ -172,6 +212,15 @@ public class ESSearchEngineService implements SearchEngineService {
     return client;
   }
 
+  /**
+   * Client applying the transport options (response buffer limit, timeout, headers) of the type of operation, the
+   * default client until connected.
+   */
+  ElasticsearchClient getClient(ESRequestOptions.Operation operation) {
+    ElasticsearchClient operationClient = operationClients.get(operation);
+    return operationClient == null ? client : operationClient;
+  }
+
   ConfigurationProvider getConfigurationProvider() {
     return configurationProvider;
   }
@@ -197,10 +246,27 @@ public class ESSearchEngineService implements SearchEngineService {
       indexConfigurationListeners.add(new PersonIndexConfiguration(configurationProvider));
       indexConfigurationListeners.add(new ProjectIndexConfiguration(configurationProvider));
       indexConfigurationListeners.add(new TaxonomyIndexConfiguration(configurationProvider));
+      indexConfigurationListeners.stream()
+        .filter(listener -> listener instanceof AbstractIndexConfiguration)
+        .map(listener -> (AbstractIndexConfiguration) listener)
+        .forEach(configuration -> {
+          configuration.setWildcardSubfield(Boolean.parseBoolean(properties.getProperty("wildcardSubfield", "false")));
+          configuration.setIndexPrefixes(Boolean.parseBoolean(properties.getProperty("indexPrefixes", "false")));
+        });
     }
     return indexConfigurationListeners;
   }
 
+  synchronized IndexConfigurationRegistry getIndexConfigurationRegistry() {
+    if (indexConfigurationRegistry == null)
+      indexConfigurationRegistry = new IndexConfigurationRegistry(getIndexConfigurationListeners());
+    return indexConfigurationRegistry;
+  }
+
+  RQLQueryGuard getQueryGuard() {
+    return queryGuard;
+  }
+
   int getNbShards() {
     return getIntProperty("shards", 5);
   }
@@ -209,6 +275,62 @@ public class ESSearchEngineService implements SearchEngineService {
     return getIntProperty("replicas", 1);
   }
 
+  /**
+   * Count of ids above which an id filter is stored in a terms lookup document instead of being inlined.
+   */
+  int getTermsLookupThreshold() {
+    return getIntProperty("termsLookupThreshold", DEFAULT_TERMS_LOOKUP_THRESHOLD);
+  }
+
+  /**
+   * Hours after which a terms lookup document that was not used is deleted.
+   */
+  int getTermsLookupTtl() {
+    return getIntProperty("termsLookupTtl", DEFAULT_TERMS_LOOKUP_TTL);
+  }
+
+  /**
+   * Whether the indices are created from index templates registered on the first index creation, instead of having
+   * their mapping put after their creation.
+   */
+  boolean isIndexTemplates() {
+    return Boolean.parseBoolean(properties.getProperty("indexTemplates", "true"));
+  }
+
+  ESIndexDocCounts getIndexDocCounts() {
+    return indexDocCounts;
+  }
+
+  /**
+   * Whether the searches request a global aggregation for the total count of documents of the index, instead of
+   * reading the cached count of documents.
+   */
+  boolean isGlobalTotalCount() {
+    return Boolean.parseBoolean(properties.getProperty("globalTotalCount", "false"));
+  }
+
+  /**
+   * Total hits tracking of the searches on the index, from the trackTotalHits.[index name] or trackTotalHits
+   * property: exact count (true, the default), no count (false) or exact count up to a number of hits.
+   */
+  TrackHits getTrackTotalHits(String indexName) {
+    return trackTotalHits.computeIfAbsent(indexName, name -> parseTrackHits(
+        properties.getProperty("trackTotalHits." + name, properties.getProperty("trackTotalHits", "true"))));
+  }
+
+  /**
+   * Reader of the terms aggregation results: columnar if enabled, with bucket keys shared across the responses if
+   * their interning is enabled.
+   */
+  Function<Aggregate, Searcher.DocumentTermsAggregation> getTermsAggregationReader() {
+    if (!Boolean.parseBoolean(properties.getProperty("columnarAggregations", "false")))
+      return ESDocumentTermsAggregation::new;
+    Interner<String> keyInterner = Boolean.parseBoolean(properties.getProperty("internAggregationKeys", "false"))
+        ? Interners.newWeakInterner()
+        : null;
+    return aggregate -> new ESColumnarTermsAggregation(aggregate, keyInterner);
+  }
+
   //
   // Private methods
   //
@@ -257,6 +379,7 @@ public class ESSearchEngineService implements SearchEngineService {
             client = new ElasticsearchClient(transport);
 
             if (client.ping().value()) {
+              operationClients = createOperationClients(client);
               log.info("Connected to Elasticsearch successfully!");
               return;
             }
@@ -338,6 +461,47 @@ public class ESSearchEngineService implements SearchEngineService {
     return dataDir;
   }
 
+  private ESRequestOptions createRequestOptions(int bufferLimitBytes) {
+    return ESRequestOptions.builder()
+      .bufferLimit(ESRequestOptions.Operation.SEARCH, bufferLimitBytes)
+      .bufferLimit(ESRequestOptions.Operation.AGGREGATION, getIntProperty("aggregationBufferLimit", bufferLimitBytes))
+      .bufferLimit(ESRequestOptions.Operation.BULK, bufferLimitBytes)
+      .bufferLimit(ESRequestOptions.Operation.INDEX, bufferLimitBytes)
+      .timeout(ESRequestOptions.Operation.SEARCH, getIntProperty("searchTimeout", 0))
+      .timeout(ESRequestOptions.Operation.AGGREGATION, getIntProperty("aggregationTimeout", 0))
+      .timeout(ESRequestOptions.Operation.BULK, getIntProperty("bulkTimeout", 0))
+      .timeout(ESRequestOptions.Operation.INDEX, getIntProperty("indexTimeout", 0))
+      .build();
+  }
+
+  private Map<ESRequestOptions.Operation, ElasticsearchClient> createOperationClients(ElasticsearchClient client) {
+    Map<ESRequestOptions.Operation, ElasticsearchClient> clients = new EnumMap<>(ESRequestOptions.Operation.class);
+    for (ESRequestOptions.Operation operation : ESRequestOptions.Operation.values())
+      clients.put(operation, client.withTransportOptions(requestOptions.get(operation)));
+    return clients;
+  }
+
+  private RQLQueryGuard createQueryGuard() {
+    RQLCostEstimator estimator = new DefaultRQLCostEstimator();
+    String estimatorClass = properties.getProperty("queryCostEstimator", "");
+    if (!estimatorClass.isEmpty()) {
+      try {
+        estimator = (RQLCostEstimator) Class.forName(estimatorClass).getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        log.warn("Invalid query cost estimator '{}', using default: {}", estimatorClass, e.getMessage());
+      }
+    }
+
+    RQLQueryGuard.Action action = RQLQueryGuard.Action.LOG;
+    try {
+      action = RQLQueryGuard.Action.valueOf(properties.getProperty("queryCostAction", action.name()).toUpperCase());
+    } catch (IllegalArgumentException e) {
+      log.warn("Invalid value for 'queryCostAction', using default: {}", action);
+    }
+
+    return new RQLQueryGuard(estimator, getIntProperty("queryCostBudget", DEFAULT_QUERY_COST_BUDGET), action);
+  }
+
   String getIndexSettings() {
     return indexSettings;
   }
@@ -381,6 +545,19 @@ public class ESSearchEngineService implements SearchEngineService {
     return builder;
   }
 
+  private TrackHits parseTrackHits(String value) {
+    String trackHits = value.trim();
+    if ("true".equalsIgnoreCase(trackHits) || "false".equalsIgnoreCase(trackHits))
+      return TrackHits.of(t -> t.enabled(Boolean.parseBoolean(trackHits)));
+    try {
+      int count = Integer.parseInt(trackHits);
+      return TrackHits.of(t -> t.count(count));
+    } catch (NumberFormatException e) {
+      log.warn("Invalid trackTotalHits value '{}', exact counts are used", value);
+      return TrackHits.of(t -> t.enabled(true));
+    }
+  }
+
   private int getIntProperty(String key, int defaultValue) {
     try {
       return Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)));
@@ -11,35 +11,43 @@
 package org.obiba.es.mica;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.FieldSort;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
 import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
 import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
 import co.elastic.clients.elasticsearch._types.aggregations.GlobalAggregation;
 import co.elastic.clients.elasticsearch._types.aggregations.TermsAggregation;
 import co.elastic.clients.elasticsearch._types.query_dsl.*;
 import co.elastic.clients.elasticsearch.core.CountResponse;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.search.SourceConfig;
 import co.elastic.clients.elasticsearch.core.search.SourceFilter;
 import co.elastic.clients.elasticsearch.core.search.TrackHits;
-import com.fasterxml.jackson.databind.JsonNode;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsResponse;
+import co.elastic.clients.elasticsearch.indices.IndexState;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
-import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.index.IndexNotFoundException;
-import org.elasticsearch.search.sort.SortBuilder;
+import org.obiba.es.mica.ESRequestOptions.Operation;
 import org.obiba.es.mica.query.AndQuery;
 import org.obiba.es.mica.query.RQLJoinQuery;
 import org.obiba.es.mica.query.RQLQuery;
+import org.obiba.es.mica.results.ESDocumentTotalCountAggregation;
+import org.obiba.es.mica.results.ESRawHitDocumentResult;
+import org.obiba.es.mica.results.ESRawSource;
 import org.obiba.es.mica.results.ESResponseCountResults;
 import org.obiba.es.mica.results.ESResponseDocumentResults;
 import org.obiba.es.mica.support.AggregationParser;
 import org.obiba.es.mica.support.ESHitSourceMapHelper;
+import org.obiba.es.mica.support.PointInTimeHitIterator;
 import org.obiba.mica.spi.search.QueryScope;
 import org.obiba.mica.spi.search.Searcher;
 import org.obiba.mica.spi.search.support.EmptyQuery;
@@ -49,11 +57,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.obiba.mica.spi.search.QueryScope.AGGREGATION;
 import static org.obiba.mica.spi.search.QueryScope.DETAIL;
@@ -62,29 +77,48 @@ public class ESSearcher implements Searcher {
 
   private static final Logger log = LoggerFactory.getLogger(Searcher.class);
 
+  // immutable request parts, shared by all the searches
+
+  private static final co.elastic.clients.elasticsearch._types.query_dsl.Query MATCH_ALL_QUERY =
+      new MatchAllQuery.Builder().build()._toQuery();
+
+  private static final SourceConfig NO_SOURCE = new SourceConfig.Builder().fetch(false).build();
+
+  private static final Aggregation GLOBAL_AGGREGATION = new GlobalAggregation.Builder().build()._toAggregation();
+
+  private static final int STREAM_PAGE_SIZE = 1000;
+
+  private static final List<SortOptions> DEFAULT_SORT = Collections.singletonList(new SortOptions.Builder()
+      .score(score -> score.order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)).build());
+
   private final ESSearchEngineService esSearchService;
 
   private final AggregationParser aggregationParser = new AggregationParser();
 
   private final ObjectMapper objectMapper;
 
-  ESSearcher(ESSearchEngineService esSearchService) {
-    this(esSearchService, 250 * 1024 * 1024);
-  }
+  private final ESIdFilterCompiler idFilterCompiler;
+
+  private final Function<Aggregate, Searcher.DocumentTermsAggregation> termsAggregationReader;
+
+  private final Function<Hit<ESRawSource>, DocumentResult> rawHitReader;
 
-  ESSearcher(ESSearchEngineService esSearchService, int bufferLimitBytes) {
+  private final boolean globalTotalCount;
+
+  ESSearcher(ESSearchEngineService esSearchService) {
     this.esSearchService = esSearchService;
     objectMapper = esSearchService.getObjectMapper();
-
-    RequestOptions.Builder builder = RequestOptions.DEFAULT.toBuilder();
-    builder.setHttpAsyncResponseConsumerFactory(
-        new HttpAsyncResponseConsumerFactory.HeapBufferedResponseConsumerFactory(bufferLimitBytes));
+    idFilterCompiler = new ESIdFilterCompiler(esSearchService);
+    termsAggregationReader = esSearchService.getTermsAggregationReader();
+    rawHitReader = hit -> new ESRawHitDocumentResult(hit, objectMapper);
+    globalTotalCount = esSearchService.isGlobalTotalCount();
   }
 
   @Override
   public JoinQuery makeJoinQuery(String rql) {
     log.debug("makeJoinQuery: {}", rql);
-    RQLJoinQuery joinQuery = new RQLJoinQuery(esSearchService.getConfigurationProvider(), esSearchService.getIndexer());
+    RQLJoinQuery joinQuery = new RQLJoinQuery(esSearchService.getConfigurationProvider(), esSearchService.getIndexer(),
+        esSearchService.getQueryGuard());
     joinQuery.initialize(rql);
     return joinQuery;
   }
@@ -94,7 +128,7 @@ public class ESSearcher implements Searcher {
     log.debug("makeQuery: {}", rql);
     if (Strings.isNullOrEmpty(rql))
       return new EmptyQuery();
-    return new RQLQuery(rql);
+    return new RQLQuery(rql, esSearchService.getQueryGuard());
   }
 
   @Override
@@ -106,315 +140,145 @@ public class ESSearcher implements Searcher {
   public DocumentResults query(String indexName, String type, Query query, QueryScope scope,
       List<String> mandatorySourceFields, Properties aggregationProperties, @Nullable IdFilter idFilter)
       throws IOException {
+    return query(indexName, type, query, scope, mandatorySourceFields, aggregationProperties, idFilter, null);
+  }
 
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
-
+  /**
+   * Same as {@link #query(String, String, Query, QueryScope, List, Properties, IdFilter)} with the total hits tracking
+   * of the caller: a list page that only displays "10000+" does not need an exact count and lets Elasticsearch skip
+   * the non competitive hits.
+   *
+   * @param trackTotalHits if null, the tracking configured for the index
+   */
+  public DocumentResults query(String indexName, String type, Query query, QueryScope scope,
+      List<String> mandatorySourceFields, Properties aggregationProperties, @Nullable IdFilter idFilter,
+      @Nullable TrackHits trackTotalHits) throws IOException {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileQuery(query, idFilter);
     List<String> sourceFields = getSourceFields(query, mandatorySourceFields);
 
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, theQuery._get().toString());
-
-    TrackHits trackHits = new TrackHits.Builder().enabled(true).build();
-    Aggregation globalAggregation = new GlobalAggregation.Builder().build()._toAggregation();
-    SourceConfig.Builder sourceConfigBuilder = new SourceConfig.Builder();
+    logRequest(indexName, type, esQuery);
 
+    SourceConfig sourceConfig = null;
     if (AGGREGATION == scope) {
-      sourceConfigBuilder.fetch(false);
+      sourceConfig = NO_SOURCE;
     } else if (sourceFields != null) {
-      if (sourceFields.isEmpty())
-        sourceConfigBuilder.fetch(false);
-      else
-        sourceConfigBuilder.filter(SourceFilter.of(s -> s.includes(sourceFields)));
+      sourceConfig = sourceFields.isEmpty()
+          ? NO_SOURCE
+          : SourceConfig.of(s -> s.filter(SourceFilter.of(f -> f.includes(sourceFields))));
     }
 
-    List<SortOptions> sortOptions = new ArrayList<>();
-
-    if (!query.isEmpty()) {
-      for (SortBuilder sortBuilder : ((ESQuery) query).getSortBuilders()) {
-        JsonNode sortJson = objectMapper.readTree(sortBuilder.toString());
-        String fieldName = sortJson.fieldNames().next();
-
-        String capitalizedOrder = sortBuilder.order().name().substring(0, 1).toUpperCase()
-            + sortBuilder.order().name().substring(1).toLowerCase();
-
-        sortOptions.add(new SortOptions.Builder().field(field -> field.field(fieldName)
-            .order(co.elastic.clients.elasticsearch._types.SortOrder.valueOf(capitalizedOrder))).build());
-      }
-    } else {
-      sortOptions.add(new SortOptions.Builder()
-          .score(score -> score.order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)).build());
-    }
-
-    Map<String, Aggregation> aggregations = new HashMap<>();
-    aggregations.put(AGG_TOTAL_COUNT, globalAggregation);
-
-    Map<String, Properties> subAggregationProperties = query.getAggregationBuckets().stream()
-        .collect(Collectors.toMap(b -> b, b -> aggregationProperties));
-    aggregationParser.setLocales(esSearchService.getConfigurationProvider().getLocales());
-    Map<String, Aggregation> parsedAggregationsFromProperties = aggregationParser.getAggregations(aggregationProperties,
-        subAggregationProperties);
-    aggregations.putAll(parsedAggregationsFromProperties);
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = theQuery;
-
-    SearchResponse<ObjectNode> response = getClient().search(s -> s.index(indexName)
-        .query(esQuery)
-        .from(query.getFrom())
-        .size(scope == DETAIL ? query.getSize() : 0)
-        .trackTotalHits(trackHits)
-        .source(sourceConfigBuilder.build())
-        .sort(sortOptions)
-        .aggregations(aggregations),
-        ObjectNode.class);
-
-    log.debug("Response /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Response /{}/{}: totalHits={}", indexName, type,
-          response == null ? 0 : response.hits().total().value());
-
-    return new ESResponseDocumentResults(response, objectMapper);
+    List<SortOptions> sortOptions = compileSort(query);
+    Map<String, Aggregation> aggregations = compileAggregations(aggregationProperties,
+        query.getAggregationBuckets().stream().collect(Collectors.toMap(b -> b, b -> aggregationProperties)));
+
+    SourceConfig source = sourceConfig;
+    TrackHits trackHits = trackTotalHits == null ? esSearchService.getTrackTotalHits(indexName) : trackTotalHits;
+    SearchResponse<ESRawSource> response = getClient(scope == DETAIL ? Operation.SEARCH : Operation.AGGREGATION)
+        .search(s -> s.index(indexName)
+            .query(esQuery)
+            .from(query.getFrom())
+            .size(scope == DETAIL ? query.getSize() : 0)
+            .trackTotalHits(trackHits)
+            .source(source)
+            .sort(sortOptions)
+            .aggregations(aggregations),
+            ESRawSource.class);
+
+    logResponse(indexName, type, response);
+
+    return newAggregationResults(indexName, response);
   }
 
   @Override
   public DocumentResults cover(String indexName, String type, Query query, Properties aggregationProperties,
       @Nullable IdFilter idFilter) {
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
-
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, theQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
-
-    try {
-      TrackHits trackHits = new TrackHits.Builder().enabled(true).build();
-      SourceConfig sourceConfig = new SourceConfig.Builder().fetch(false).build();
-      Aggregation globalAggregation = new GlobalAggregation.Builder().build()._toAggregation();
-
-      Map<String, Aggregation> aggregations = new HashMap<>();
-      aggregations.put(AGG_TOTAL_COUNT, globalAggregation);
-
-      Map<String, Properties> subAggregationProperties = query.getAggregationBuckets().stream()
-          .collect(Collectors.toMap(b -> b, b -> aggregationProperties));
-      aggregationParser.setLocales(esSearchService.getConfigurationProvider().getLocales());
-      Map<String, Aggregation> parsedAggregationsFromProperties = aggregationParser
-          .getAggregations(aggregationProperties, subAggregationProperties);
-      aggregations.putAll(parsedAggregationsFromProperties);
-
-      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = theQuery;
-
-      response = getClient().search(s -> s.index(indexName)
-          .query(esQuery)
-          .from(0)
-          .size(0)
-          .trackTotalHits(trackHits)
-          .source(sourceConfig)
-          .aggregations(aggregations),
-          ObjectNode.class);
-    } catch (IOException e) {
-      log.error("Failed to cover {} - {}", indexName, e);
-    }
-
-    log.debug("Response /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Response /{}/{}: totalHits={}", indexName, type,
-          response == null ? 0 : response.hits().total().value());
-
-    return new ESResponseDocumentResults(response, objectMapper);
+    return cover(indexName, type, query, aggregationProperties,
+        query.getAggregationBuckets().stream().collect(Collectors.toMap(b -> b, b -> aggregationProperties)),
+        idFilter);
   }
 
   @Override
   public DocumentResults cover(String indexName, String type, Query query, Properties aggregationProperties,
       Map<String, Properties> subAggregationProperties, @Nullable IdFilter idFilter) {
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
-
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, theQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileQuery(query, idFilter);
+    SearchResponse<ESRawSource> response = null;
 
+    logRequest(indexName, type, esQuery);
     try {
-      TrackHits trackHits = new TrackHits.Builder().enabled(true).build();
-      SourceConfig sourceConfig = new SourceConfig.Builder().fetch(false).build();
-      Aggregation globalAggregation = new GlobalAggregation.Builder().build()._toAggregation();
-
-      Map<String, Aggregation> aggregations = new HashMap<>();
-      aggregations.put(AGG_TOTAL_COUNT, globalAggregation);
-
-      aggregationParser.setLocales(esSearchService.getConfigurationProvider().getLocales());
-      Map<String, Aggregation> parsedAggregationsFromProperties = aggregationParser
-          .getAggregations(aggregationProperties, subAggregationProperties);
-      aggregations.putAll(parsedAggregationsFromProperties);
-
-      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = theQuery;
-
-      response = getClient().search(s -> s.index(indexName)
-          .query(esQuery)
-          .from(0)
-          .size(0)
-          .trackTotalHits(trackHits)
-          .source(sourceConfig)
-          .aggregations(aggregations),
-          ObjectNode.class);
+      response = searchAggregations(indexName, esQuery,
+          compileAggregations(aggregationProperties, subAggregationProperties));
     } catch (IOException e) {
       log.error("Failed to cover {} - {}", indexName, e);
     }
-    log.debug("Response /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Response /{}/{}: totalHits={}", indexName, type,
-          response == null ? 0 : response.hits().total().value());
+    logResponse(indexName, type, response);
 
-    return new ESResponseDocumentResults(response, objectMapper);
+    return newAggregationResults(indexName, response);
   }
 
   @Override
   public DocumentResults aggregate(String indexName, String type, Query query, Properties aggregationProperties,
       IdFilter idFilter) {
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileQuery(query, idFilter);
+    SearchResponse<ESRawSource> response = null;
 
-    co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
-
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, theQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    logRequest(indexName, type, esQuery);
     try {
-      TrackHits trackHits = new TrackHits.Builder().enabled(true).build();
-      SourceConfig sourceConfig = new SourceConfig.Builder().fetch(false).build();
-      Aggregation globalAggregation = new GlobalAggregation.Builder().build()._toAggregation();
-
-      Map<String, Aggregation> aggregations = new HashMap<>();
-      aggregations.put(AGG_TOTAL_COUNT, globalAggregation);
-
-      aggregationParser.setLocales(esSearchService.getConfigurationProvider().getLocales());
-      Map<String, Aggregation> parsedAggregationsFromProperties = aggregationParser
-          .getAggregations(aggregationProperties, null);
-      aggregations.putAll(parsedAggregationsFromProperties);
-
-      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = theQuery;
-
-      response = getClient().search(s -> s.index(indexName)
-          .query(esQuery)
-          .from(0)
-          .size(0)
-          .trackTotalHits(trackHits)
-          .source(sourceConfig)
-          .aggregations(aggregations),
-          ObjectNode.class);
+      response = searchAggregations(indexName, esQuery, compileAggregations(aggregationProperties, null));
     } catch (IOException e) {
       log.error("Failed to aggregate {} - {}", indexName, e);
     }
-    log.debug("Response /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Response /{}/{}: totalHits={}", indexName, type,
-          response == null ? 0 : response.hits().total().value());
+    logResponse(indexName, type, response);
 
-    return new ESResponseDocumentResults(response, objectMapper);
+    return newAggregationResults(indexName, response);
   }
 
   @Override
   public DocumentResults find(String indexName, String type, String rql, IdFilter idFilter) {
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-
-    RQLQuery query = new RQLQuery(rql);
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
+    return find(indexName, type, rql, idFilter, ESSourceProjection.ALL);
+  }
 
-    co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
+  /**
+   * Same as {@link #find(String, String, String, IdFilter)}, the documents being restricted to the projected fields.
+   */
+  public DocumentResults find(String indexName, String type, String rql, IdFilter idFilter,
+      ESSourceProjection projection) {
+    RQLQuery query = new RQLQuery(rql, esSearchService.getQueryGuard());
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileQuery(query, idFilter);
+    SearchResponse<ESRawSource> response = null;
 
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, theQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    logRequest(indexName, type, esQuery);
     try {
-      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = theQuery;
-
-      List<SortOptions> sortOptions = new ArrayList<>();
-
-      if (query.hasSortBuilders()) {
-        for (SortBuilder sortBuilder : query.getSortBuilders()) {
-          JsonNode sortJson = objectMapper.readTree(sortBuilder.toString());
-          String fieldName = sortJson.fieldNames().next();
+      List<SortOptions> sortOptions = compileSort(query);
 
-          String capitalizedOrder = sortBuilder.order().name().substring(0, 1).toUpperCase()
-              + sortBuilder.order().name().substring(1).toLowerCase();
-
-          sortOptions.add(new SortOptions.Builder().field(field -> field.field(fieldName)
-              .order(co.elastic.clients.elasticsearch._types.SortOrder.valueOf(capitalizedOrder))).build());
-        }
-      } else {
-        sortOptions.add(new SortOptions.Builder()
-            .score(score -> score.order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)).build());
-      }
-
-      response = getClient().search(s -> s.index(indexName)
+      response = getClient(Operation.SEARCH).search(s -> projection.apply(s.index(indexName)
           .query(esQuery)
           .from(query.getFrom())
           .size(query.getSize())
-          .sort(sortOptions),
-          ObjectNode.class);
+          .sort(sortOptions)),
+          ESRawSource.class);
     } catch (IOException e) {
       log.error("Failed to find {} - {}", indexName, e);
     }
     log.debug("Response /{}/{}", indexName, type);
 
-    return new ESResponseDocumentResults(response, objectMapper);
+    return new ESResponseDocumentResults(response, rawHitReader, termsAggregationReader);
   }
 
   @Override
   public DocumentResults count(String indexName, String type, String rql, IdFilter idFilter) {
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-    RQLQuery query = new RQLQuery(rql);
+    RQLQuery query = new RQLQuery(rql, esSearchService.getQueryGuard());
 
     List<String> aggregations = query.getAggregations();
-    if (query.getAggregations() != null && !aggregations.isEmpty()) {
-      return countWithAggregations(indexName, type, rql, idFilter);
+    if (aggregations != null && !aggregations.isEmpty()) {
+      return countWithAggregations(indexName, type, query, idFilter);
     }
 
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
-    co.elastic.clients.elasticsearch._types.query_dsl.Query countQueryBuilder = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
+    co.elastic.clients.elasticsearch._types.query_dsl.Query countQueryBuilder = compileQuery(query, idFilter);
 
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, countQueryBuilder._get().toString());
+    logRequest(indexName, type, countQueryBuilder);
     CountResponse response = null;
     try {
-      response = getClient().count(r -> r.index(indexName).query(countQueryBuilder));
+      response = getClient(Operation.SEARCH).count(r -> r.index(indexName).query(countQueryBuilder));
     } catch (IOException e) {
       log.error("Failed to count {} - {}", indexName, e);
     }
@@ -428,28 +292,16 @@ public class ESSearcher implements Searcher {
    *
    * @param indexName
    * @param type
-   * @param rql
+   * @param query
    * @param idFilter
    * @return
    */
-  private DocumentResults countWithAggregations(String indexName, String type, String rql, IdFilter idFilter) {
-    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = idFilter == null ? null
-        : getIdQueryBuilder(idFilter);
-    RQLQuery query = new RQLQuery(rql);
-    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
-        ? new MatchAllQuery.Builder().build()._toQuery()
-        : ((ESQuery) query).getQueryBuilder();
+  private DocumentResults countWithAggregations(String indexName, String type, RQLQuery query, IdFilter idFilter) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileQuery(query, idFilter);
+    SearchResponse<ESRawSource> response = null;
 
-    co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = filter == null ? queryBuilder
-        : BoolQuery.of(q -> q.must(queryBuilder, filter))._toQuery();
-
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, theQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    logRequest(indexName, type, esQuery);
     try {
-      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = theQuery;
-
       Map<String, Aggregation> aggregations = new HashMap<>();
 
       for (String field : query.getAggregations()) {
@@ -457,18 +309,18 @@ public class ESSearcher implements Searcher {
             TermsAggregation.of(agg -> agg.field(field).size(Short.toUnsignedInt(Short.MAX_VALUE)))._toAggregation());
       }
 
-      response = getClient().search(s -> s.index(indexName)
+      response = getClient(Operation.AGGREGATION).search(s -> s.index(indexName)
           .query(esQuery)
           .from(0)
           .size(0)
           .aggregations(aggregations),
-          ObjectNode.class);
+          ESRawSource.class);
     } catch (IOException e) {
       log.error("Failed to count {} - {}", indexName, e);
     }
     log.debug("Response /{}/{}", indexName, type);
 
-    return new ESResponseDocumentResults(response, objectMapper);
+    return new ESResponseDocumentResults(response, rawHitReader, termsAggregationReader);
   }
 
   @Override
@@ -490,19 +342,17 @@ public class ESSearcher implements Searcher {
 
       SourceConfig sourceConfig = new SourceConfig.Builder().filter(SourceFilter.of(s -> s.includes(fieldName)))
           .build();
-      SortOptions sortOption = new SortOptions.Builder()
-          .score(score -> score.order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)).build();
-
-      SearchResponse<ObjectNode> response = getClient().search(s -> s.index(indexName)
+      // the source fields are read, decoded as a map
+      SearchResponse<Map> response = getClient(Operation.SEARCH).search(s -> s.index(indexName)
           .query(esQuery)
           .from(0)
           .size(limit)
           .source(sourceConfig)
-          .sort(sortOption),
-          ObjectNode.class);
+          .sort(DEFAULT_SORT),
+          Map.class);
 
       response.hits().hits().forEach(hit -> {
-        String value = ESHitSourceMapHelper.flattenMap(objectMapper, hit).get(fieldName).toLowerCase();
+        String value = ESHitSourceMapHelper.flattenMap(hit.source()).get(fieldName).toLowerCase();
         names.add(Joiner.on(" ").join(Splitter.on(" ").trimResults().splitToList(value).stream()
             .filter(str -> !str.contains("[") && !str.contains("(") && !str.contains("{") && !str.contains("]")
                 && !str.contains(")") && !str.contains("}"))
@@ -520,18 +370,25 @@ public class ESSearcher implements Searcher {
 
   @Override
   public InputStream getDocumentById(String indexName, String type, String id) {
+    return getDocumentById(indexName, type, id, ESSourceProjection.ALL);
+  }
+
+  /**
+   * Same as {@link #getDocumentById(String, String, String)}, the document being restricted to the projected fields.
+   */
+  public InputStream getDocumentById(String indexName, String type, String id, ESSourceProjection projection) {
     co.elastic.clients.elasticsearch._types.query_dsl.Query query = IdsQuery.of(iq -> iq.values(id))._toQuery();
 
     log.debug("Request: /{}/{}", indexName, type);
     if (log.isTraceEnabled())
       log.trace("Request /{}/{}: {}", indexName, type, query._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    SearchResponse<ESRawSource> response = null;
     try {
       co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = query;
 
-      response = getClient().search(s -> s.index(indexName)
-          .query(esQuery),
-          ObjectNode.class);
+      response = getClient(Operation.SEARCH).search(s -> projection.apply(s.index(indexName)
+          .query(esQuery)),
+          ESRawSource.class);
     } catch (IOException e) {
       log.error("Failed to get document by ID {} - {}", indexName, e);
     }
@@ -539,7 +396,7 @@ public class ESSearcher implements Searcher {
 
     if (response == null || response.hits().total().value() == 0)
       return null;
-    return new ByteArrayInputStream(response.hits().hits().get(0).source().toString().getBytes());
+    return rawHitReader.apply(response.hits().hits().get(0)).getSourceInputStream();
   }
 
   @Override
@@ -553,13 +410,13 @@ public class ESSearcher implements Searcher {
     log.debug("Request /{}/{}", indexName, type);
     if (log.isTraceEnabled())
       log.trace("Request /{}/{}: {}", indexName, type, query._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    SearchResponse<ESRawSource> response = null;
     try {
       co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = query;
 
-      response = getClient().search(s -> s.index(indexName)
+      response = getClient(Operation.SEARCH).search(s -> s.index(indexName)
           .query(esQuery),
-          ObjectNode.class);
+          ESRawSource.class);
     } catch (IOException e) {
       log.error("Failed to get document by class name {} - {}", indexName, e);
     }
@@ -567,119 +424,182 @@ public class ESSearcher implements Searcher {
 
     if (response == null || response.hits().total().value() == 0)
       return null;
-    return new ByteArrayInputStream(response.hits().hits().get(0).source().toString().getBytes());
+    return rawHitReader.apply(response.hits().hits().get(0)).getSourceInputStream();
   }
 
   @Override
   public DocumentResults getDocumentsByClassName(String indexName, String type, Class clazz, int from, int limit,
       String sort, String order, String queryString,
       TermFilter termFilter, IdFilter idFilter) {
+    return getDocumentsByClassName(indexName, type, clazz, from, limit, sort, order, queryString, termFilter, idFilter,
+        ESSourceProjection.ALL);
+  }
 
-    co.elastic.clients.elasticsearch._types.query_dsl.Query classNameQuery = QueryStringQuery
-        .of(q -> q.query(clazz.getSimpleName()).fields("className"))._toQuery();
-
-    BoolQuery.Builder boolQuery = new BoolQuery.Builder().must(classNameQuery);
-
-    if (queryString != null) {
-      boolQuery.must(QueryStringQuery.of(q -> q.query(queryString))._toQuery());
-    }
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query postFilter = getPostFilter(termFilter, idFilter);
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query execQuery = postFilter == null
-        ? boolQuery.build()._toQuery()
-        : boolQuery.must(postFilter).build()._toQuery();
+  /**
+   * Same as {@link #getDocumentsByClassName(String, String, Class, int, int, String, String, String, TermFilter,
+   * IdFilter)}, the documents being restricted to the projected fields.
+   */
+  public DocumentResults getDocumentsByClassName(String indexName, String type, Class clazz, int from, int limit,
+      String sort, String order, String queryString, TermFilter termFilter, IdFilter idFilter,
+      ESSourceProjection projection) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileDocumentsByClassNameQuery(clazz,
+        queryString, termFilter, idFilter);
 
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, execQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    logRequest(indexName, type, esQuery);
+    SearchResponse<ESRawSource> response = null;
     try {
-      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = execQuery;
+      List<SortOptions> sortOptions = compileFieldSort(sort, order, DEFAULT_SORT);
 
-      co.elastic.clients.elasticsearch._types.SortOrder sortOrder = Strings.isNullOrEmpty(order)
-          ? co.elastic.clients.elasticsearch._types.SortOrder.Asc
-          : co.elastic.clients.elasticsearch._types.SortOrder
-              .valueOf(order.substring(0, 1).toUpperCase() + order.substring(1).toLowerCase());
-
-      SortOptions sortOption = sort != null
-          ? new SortOptions.Builder().field(FieldSort.of(s -> s.field(sort).order(sortOrder))).build()
-          : new SortOptions.Builder()
-              .score(score -> score.order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)).build();
-
-      response = getClient().search(s -> s.index(indexName)
+      response = getClient(Operation.SEARCH).search(s -> projection.apply(s.index(indexName)
           .query(esQuery)
           .from(from)
           .size(limit)
-          .sort(sortOption),
-          ObjectNode.class);
+          .sort(sortOptions)),
+          ESRawSource.class);
     } catch (IOException e) {
       log.error("Failed to get documents by class name{} - {}", indexName, e);
     }
     log.debug("Response /{}/{}", indexName, type);
 
-    return new ESResponseDocumentResults(response, objectMapper);
+    return new ESResponseDocumentResults(response, rawHitReader, termsAggregationReader);
   }
 
   @Override
   public DocumentResults getDocuments(String indexName, String type, int from, int limit, @Nullable String sort,
       @Nullable String order, @Nullable String queryString, @Nullable TermFilter termFilter,
       @Nullable IdFilter idFilter, @Nullable List<String> fields, @Nullable List<String> excludedFields) {
-    QueryStringQuery.Builder query = queryString != null ? new QueryStringQuery.Builder().query(queryString) : null;
-    if (query != null && fields != null)
-      query.fields(fields);
-    co.elastic.clients.elasticsearch._types.query_dsl.Query postFilter = getPostFilter(termFilter, idFilter);
-
-    co.elastic.clients.elasticsearch._types.query_dsl.Query execQuery = postFilter == null
-        ? (query == null ? new MatchAllQuery.Builder().build()._toQuery() : query.build()._toQuery())
-        : query == null ? postFilter
-            : BoolQuery.of(q -> q.must(query.build()._toQuery()).filter(postFilter))._toQuery();
-
-    if (excludedFields != null) {
-      BoolQuery.Builder boolQueryBuilder = new BoolQuery.Builder();
-
-      excludedFields.forEach(f -> boolQueryBuilder
-          .mustNot(BoolQuery.of(q -> q.must(TermQuery.of(termQ -> termQ.field(f).value("true"))._toQuery(),
-              ExistsQuery.of(existQ -> existQ.field(f))._toQuery()))._toQuery()));
+    return getDocuments(indexName, type, from, limit, sort, order, queryString, termFilter, idFilter, fields,
+        excludedFields, ESSourceProjection.ALL);
+  }
 
-      execQuery = boolQueryBuilder.must(execQuery).build()._toQuery();
-    }
+  /**
+   * Same as {@link #getDocuments(String, String, int, int, String, String, String, TermFilter, IdFilter, List,
+   * List)}, the documents being restricted to the projected fields.
+   */
+  public DocumentResults getDocuments(String indexName, String type, int from, int limit, @Nullable String sort,
+      @Nullable String order, @Nullable String queryString, @Nullable TermFilter termFilter,
+      @Nullable IdFilter idFilter, @Nullable List<String> fields, @Nullable List<String> excludedFields,
+      ESSourceProjection projection) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileDocumentsQuery(queryString, termFilter,
+        idFilter, fields, excludedFields);
 
-    log.debug("Request /{}/{}", indexName, type);
-    if (log.isTraceEnabled())
-      log.trace("Request /{}/{}: {}", indexName, type, execQuery._get().toString());
-    SearchResponse<ObjectNode> response = null;
+    logRequest(indexName, type, esQuery);
+    SearchResponse<ESRawSource> response = null;
     try {
-      co.elastic.clients.elasticsearch._types.SortOrder sortOrder = Strings.isNullOrEmpty(order)
-          ? co.elastic.clients.elasticsearch._types.SortOrder.Asc
-          : co.elastic.clients.elasticsearch._types.SortOrder
-              .valueOf(order.substring(0, 1).toUpperCase() + order.substring(1).toLowerCase());
-
-      SortOptions sortOption = sort != null
-          ? new SortOptions.Builder().field(FieldSort.of(s -> s.field(sort).order(sortOrder))).build()
-          : new SortOptions.Builder()
-              .score(score -> score.order(co.elastic.clients.elasticsearch._types.SortOrder.Desc)).build();
+      List<SortOptions> sortOptions = compileFieldSort(sort, order, DEFAULT_SORT);
 
-      co.elastic.clients.elasticsearch._types.query_dsl.Query finalQuery = execQuery;
-
-      response = getClient().search(s -> s.index(indexName)
-          .query(finalQuery)
+      response = getClient(Operation.SEARCH).search(s -> projection.apply(s.index(indexName)
+          .query(esQuery)
           .from(from)
           .size(limit)
-          .sort(sortOption),
-          ObjectNode.class);
+          .sort(sortOptions)),
+          ESRawSource.class);
     } catch (IOException e) {
       log.error("Failed to get documents {} - {}", indexName, e);
     }
     log.debug("Response /{}/{}", indexName, type);
 
-    return new ESResponseDocumentResults(response, objectMapper);
+    return new ESResponseDocumentResults(response, rawHitReader, termsAggregationReader);
+  }
+
+  /**
+   * Same selection as {@link #getDocuments(String, String, int, int, String, String, String, TermFilter, IdFilter,
+   * List, List)} but all the matching documents are streamed, page after page, using a point in time and search_after
+   * instead of from/size: there is no max_result_window limit and memory usage does not depend on the count of
+   * documents. The stream must be closed to release the point in time.
+   */
+  public Stream<DocumentResult> streamDocuments(String indexName, String type, @Nullable String sort,
+      @Nullable String order, @Nullable String queryString, @Nullable TermFilter termFilter,
+      @Nullable IdFilter idFilter, @Nullable List<String> fields, @Nullable List<String> excludedFields) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileDocumentsQuery(queryString, termFilter,
+        idFilter, fields, excludedFields);
+    return streamHits(indexName, type, esQuery, compileFieldSort(sort, order, null));
+  }
+
+  /**
+   * Streaming version of {@link #getDocumentsByClassName(String, String, Class, int, int, String, String, String,
+   * TermFilter, IdFilter)}, see {@link #streamDocuments}.
+   */
+  public Stream<DocumentResult> streamDocumentsByClassName(String indexName, String type, Class clazz,
+      @Nullable String sort, @Nullable String order, @Nullable String queryString, @Nullable TermFilter termFilter,
+      @Nullable IdFilter idFilter) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileDocumentsByClassNameQuery(clazz,
+        queryString, termFilter, idFilter);
+    return streamHits(indexName, type, esQuery, compileFieldSort(sort, order, null));
+  }
+
+  /**
+   * Reads all the documents of an index matching the optional query string, one slice of a shared point in time per
+   * shard of the index (bounded by the count of available processors), the slices being read concurrently. The
+   * consumer is called from several threads and must be thread-safe. Returns when all the slices have been read.
+   */
+  public void scanDocuments(String indexName, String type, @Nullable String queryString,
+      Consumer<DocumentResult> consumer) {
+    int slices = Math.min(getNbShards(indexName), Runtime.getRuntime().availableProcessors());
+    scanDocuments(indexName, type, queryString, slices, consumer);
+  }
+
+  public void scanDocuments(String indexName, String type, @Nullable String queryString, int slices,
+      Consumer<DocumentResult> consumer) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery = compileDocumentsQuery(queryString, null, null,
+        null, null);
+    logRequest(indexName, type, esQuery);
+
+    ElasticsearchClient client = getClient(Operation.SEARCH);
+    String pitId = PointInTimeHitIterator.openPointInTime(client, indexName);
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (int i = 0; i < slices; i++) {
+        String sliceId = String.valueOf(i);
+        // slicing requires at least two slices
+        SlicedScroll slice = slices > 1 ? SlicedScroll.of(sl -> sl.id(sliceId).max(slices)) : null;
+        futures.add(executor.submit(() -> {
+          try (PointInTimeHitIterator<ESRawSource> hits = new PointInTimeHitIterator<>(client, ESRawSource.class,
+              pitId, esQuery, null, null, STREAM_PAGE_SIZE, slice)) {
+            hits.forEachRemaining(hit -> consumer.accept(rawHitReader.apply(hit)));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while scanning " + indexName, e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Failed to scan " + indexName, e.getCause());
+    } finally {
+      PointInTimeHitIterator.closePointInTime(client, pitId);
+    }
+    log.debug("Response /{}/{}", indexName, type);
+  }
+
+  /**
+   * Count of primary shards of the index, as set when it was created: the configured count only applies to the new
+   * indices. Falls back to a single shard if the settings cannot be read.
+   */
+  private int getNbShards(String indexName) {
+    try {
+      GetIndicesSettingsResponse response = getClient(Operation.SEARCH).indices()
+          .getSettings(r -> r.index(indexName).name("index.number_of_shards"));
+      return response.result().values().stream()
+          .map(IndexState::settings)
+          .filter(Objects::nonNull)
+          .map(settings -> settings.index() == null ? settings.numberOfShards() : settings.index().numberOfShards())
+          .filter(Objects::nonNull)
+          .mapToInt(Integer::parseInt)
+          .max()
+          .orElse(1);
+    } catch (ElasticsearchException | IOException e) {
+      log.warn("Cannot read the count of shards of {}", indexName, e);
+      return 1;
+    }
   }
 
   @Override
   public long countDocumentsWithField(String indexName, String type, String field) {
     co.elastic.clients.elasticsearch._types.query_dsl.Query theQuery = BoolQuery
-        .of(q -> q.must(m -> m.exists(ExistsQuery.of(existsQ -> existsQ.field(field)))))._toQuery();
+        .of(q -> q.filter(m -> m.exists(ExistsQuery.of(existsQ -> existsQ.field(field)))))._toQuery();
 
     try {
       log.debug("Request /{}/{}: {}", indexName, type, theQuery);
@@ -692,7 +612,7 @@ public class ESSearcher implements Searcher {
       TermsAggregation termsAggregation = TermsAggregation
           .of(agg -> agg.field(field).size(Short.toUnsignedInt(Short.MAX_VALUE)));
 
-      SearchResponse<ObjectNode> response = getClient().search(s -> s.index(indexName)
+      SearchResponse<ObjectNode> response = getClient(Operation.AGGREGATION).search(s -> s.index(indexName)
           .query(esQuery)
           .from(0)
           .size(0)
@@ -713,7 +633,7 @@ public class ESSearcher implements Searcher {
   public Map<Object, Object> harmonizationStatusAggregation(String datasetId, int size, String aggregationFieldName,
       String statusFieldName) {
     co.elastic.clients.elasticsearch._types.query_dsl.Query queryPart = BoolQuery
-        .of(q -> q.must(TermQuery.of(tq -> tq.field("datasetId").value(datasetId))._toQuery()))._toQuery();
+        .of(q -> q.filter(TermQuery.of(tq -> tq.field("datasetId").value(datasetId))._toQuery()))._toQuery();
 
     TermsAggregation firstLevelTermsAggregation = TermsAggregation
         .of(agg -> agg.field(aggregationFieldName).size(size));
@@ -725,7 +645,7 @@ public class ESSearcher implements Searcher {
       if (log.isTraceEnabled())
         log.trace("Request /{}: {}/{}", datasetId, queryPart._get().toString(), aggregation._get().toString());
 
-      SearchResponse<ObjectNode> response = getClient().search(s -> s.index("hvariable-published")
+      SearchResponse<ObjectNode> response = getClient(Operation.AGGREGATION).search(s -> s.index("hvariable-published")
           .query(queryPart)
           .from(0)
           .size(0)
@@ -751,6 +671,164 @@ public class ESSearcher implements Searcher {
   // Private methods
   //
 
+  /**
+   * Combines the query builder (or a match-all when there is none) with the optional id filter.
+   */
+  private co.elastic.clients.elasticsearch._types.query_dsl.Query compileQuery(Query query,
+      @Nullable IdFilter idFilter) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query queryBuilder = query.isEmpty() || !query.hasQueryBuilder()
+        ? MATCH_ALL_QUERY
+        : ((ESQuery) query).getQueryBuilder();
+
+    if (idFilter == null)
+      return queryBuilder;
+
+    // filter context: no scoring and eligible to the node query cache
+    co.elastic.clients.elasticsearch._types.query_dsl.Query filter = getIdQueryBuilder(idFilter);
+    return queryBuilder == MATCH_ALL_QUERY
+        ? BoolQuery.of(q -> q.filter(filter))._toQuery()
+        : BoolQuery.of(q -> q.must(queryBuilder).filter(filter))._toQuery();
+  }
+
+  /**
+   * Sort options of the query, or the default descending score sort when the query does not define any.
+   */
+  private List<SortOptions> compileSort(Query query) {
+    return query.isEmpty() || !((ESQuery) query).hasSortBuilders()
+        ? DEFAULT_SORT
+        : ((ESQuery) query).getSortBuilders();
+  }
+
+  /**
+   * Sort on the given field, or the provided default sort when there is no sort field.
+   */
+  private List<SortOptions> compileFieldSort(@Nullable String sort, @Nullable String order,
+      @Nullable List<SortOptions> defaultSort) {
+    if (sort == null)
+      return defaultSort;
+
+    co.elastic.clients.elasticsearch._types.SortOrder sortOrder = Strings.isNullOrEmpty(order)
+        ? co.elastic.clients.elasticsearch._types.SortOrder.Asc
+        : co.elastic.clients.elasticsearch._types.SortOrder
+            .valueOf(order.substring(0, 1).toUpperCase() + order.substring(1).toLowerCase());
+
+    return Collections.singletonList(
+        new SortOptions.Builder().field(FieldSort.of(s -> s.field(sort).order(sortOrder))).build());
+  }
+
+  private co.elastic.clients.elasticsearch._types.query_dsl.Query compileDocumentsByClassNameQuery(Class clazz,
+      @Nullable String queryString, @Nullable TermFilter termFilter, @Nullable IdFilter idFilter) {
+    co.elastic.clients.elasticsearch._types.query_dsl.Query classNameQuery = QueryStringQuery
+        .of(q -> q.query(clazz.getSimpleName()).fields("className"))._toQuery();
+
+    BoolQuery.Builder boolQuery = new BoolQuery.Builder().must(classNameQuery);
+
+    if (queryString != null) {
+      boolQuery.must(QueryStringQuery.of(q -> q.query(queryString))._toQuery());
+    }
+
+    co.elastic.clients.elasticsearch._types.query_dsl.Query postFilter = getPostFilter(termFilter, idFilter);
+
+    return postFilter == null
+        ? boolQuery.build()._toQuery()
+        : boolQuery.filter(postFilter).build()._toQuery();
+  }
+
+  private co.elastic.clients.elasticsearch._types.query_dsl.Query compileDocumentsQuery(@Nullable String queryString,
+      @Nullable TermFilter termFilter, @Nullable IdFilter idFilter, @Nullable List<String> fields,
+      @Nullable List<String> excludedFields) {
+    QueryStringQuery.Builder query = queryString != null ? new QueryStringQuery.Builder().query(queryString) : null;
+    if (query != null && fields != null)
+      query.fields(fields);
+    co.elastic.clients.elasticsearch._types.query_dsl.Query postFilter = getPostFilter(termFilter, idFilter);
+
+    // filter context: no scoring and eligible to the node query cache
+    co.elastic.clients.elasticsearch._types.query_dsl.Query execQuery = postFilter == null
+        ? (query == null ? MATCH_ALL_QUERY : query.build()._toQuery())
+        : query == null ? BoolQuery.of(q -> q.filter(postFilter))._toQuery()
+            : BoolQuery.of(q -> q.must(query.build()._toQuery()).filter(postFilter))._toQuery();
+
+    if (excludedFields != null) {
+      BoolQuery.Builder boolQueryBuilder = new BoolQuery.Builder();
+
+      excludedFields.forEach(f -> boolQueryBuilder
+          .mustNot(BoolQuery.of(q -> q.must(TermQuery.of(termQ -> termQ.field(f).value("true"))._toQuery(),
+              ExistsQuery.of(existQ -> existQ.field(f))._toQuery()))._toQuery()));
+
+      execQuery = boolQueryBuilder.must(execQuery).build()._toQuery();
+    }
+
+    return execQuery;
+  }
+
+  private Stream<DocumentResult> streamHits(String indexName, String type,
+      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery, @Nullable List<SortOptions> sortOptions) {
+    logRequest(indexName, type, esQuery);
+    PointInTimeHitIterator<ESRawSource> hits = new PointInTimeHitIterator<>(getClient(Operation.SEARCH),
+        ESRawSource.class, indexName, esQuery, sortOptions, null, STREAM_PAGE_SIZE);
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hits, Spliterator.ORDERED | Spliterator.NONNULL),
+        false)
+        .onClose(hits::close)
+        .map(rawHitReader);
+  }
+
+  /**
+   * Aggregations described by the properties, along with the total count global aggregation if it is not read from
+   * the cached count of documents of the index.
+   */
+  private Map<String, Aggregation> compileAggregations(Properties aggregationProperties,
+      @Nullable Map<String, Properties> subAggregationProperties) {
+    Map<String, Aggregation> aggregations = new HashMap<>();
+    if (globalTotalCount)
+      aggregations.put(AGG_TOTAL_COUNT, GLOBAL_AGGREGATION);
+
+    aggregations.putAll(aggregationParser.getAggregations(aggregationProperties, subAggregationProperties,
+        esSearchService.getConfigurationProvider().getLocales()));
+    return aggregations;
+  }
+
+  /**
+   * Results of a search with aggregations, with the total count of documents of the index.
+   */
+  private ESResponseDocumentResults newAggregationResults(String indexName, SearchResponse<ESRawSource> response) {
+    ESResponseDocumentResults results = new ESResponseDocumentResults(response, rawHitReader, termsAggregationReader);
+    if (globalTotalCount)
+      return results;
+    ESIndexDocCounts indexDocCounts = esSearchService.getIndexDocCounts();
+    return results.withAggregation(new ESDocumentTotalCountAggregation(AGG_TOTAL_COUNT,
+        () -> indexDocCounts.get(indexName)));
+  }
+
+  /**
+   * Executes a search that only returns the total hits and the aggregations.
+   */
+  private SearchResponse<ESRawSource> searchAggregations(String indexName,
+      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery, Map<String, Aggregation> aggregations)
+      throws IOException {
+    return getClient(Operation.AGGREGATION).search(s -> s.index(indexName)
+        .query(esQuery)
+        .from(0)
+        .size(0)
+        .trackTotalHits(esSearchService.getTrackTotalHits(indexName))
+        .source(NO_SOURCE)
+        .aggregations(aggregations),
+        ESRawSource.class);
+  }
+
+  private void logRequest(String indexName, String type,
+      co.elastic.clients.elasticsearch._types.query_dsl.Query esQuery) {
+    log.debug("Request /{}/{}", indexName, type);
+    if (log.isTraceEnabled())
+      log.trace("Request /{}/{}: {}", indexName, type, esQuery._get().toString());
+  }
+
+  private void logResponse(String indexName, String type, @Nullable SearchResponse<?> response) {
+    log.debug("Response /{}/{}", indexName, type);
+    if (log.isTraceEnabled())
+      log.trace("Response /{}/{}: totalHits={}", indexName, type,
+          response == null || response.hits().total() == null ? 0 : response.hits().total().value());
+  }
+
   private co.elastic.clients.elasticsearch._types.query_dsl.Query getPostFilter(TermFilter termFilter,
       IdFilter idFilter) {
     co.elastic.clients.elasticsearch._types.query_dsl.Query filter = null;
@@ -765,10 +843,10 @@ public class ESSearcher implements Searcher {
       if (filter == null) {
         filter = filterBy._toQuery();
       } else {
-        List<co.elastic.clients.elasticsearch._types.query_dsl.Query> mustQueries = new ArrayList<>();
-        mustQueries.add(filter);
-        mustQueries.add(filterBy._toQuery());
-        filter = BoolQuery.of(q -> q.must(mustQueries))._toQuery();
+        List<co.elastic.clients.elasticsearch._types.query_dsl.Query> filterQueries = new ArrayList<>();
+        filterQueries.add(filter);
+        filterQueries.add(filterBy._toQuery());
+        filter = BoolQuery.of(q -> q.filter(filterQueries))._toQuery();
       }
     }
 
@@ -786,12 +864,7 @@ public class ESSearcher implements Searcher {
     } else if ("id".equals(idFilter.getField())) {
       return IdsQuery.of(q -> q.values(ids.stream().collect(Collectors.toList())))._toQuery();
     } else {
-      List<co.elastic.clients.elasticsearch._types.query_dsl.Query> termQueries = ids.stream()
-          .map(id -> TermQuery.of(q -> q.field(idFilter.getField()).value(id))._toQuery()).collect(Collectors.toList());
-
-      // FIXME filter = QueryBuilders.termsQuery(idFilter.getField(), ids);
-
-      return BoolQuery.of(q -> q.should(termQueries))._toQuery();
+      return idFilterCompiler.compile(idFilter);
     }
   }
 
@@ -810,28 +883,25 @@ public class ESSearcher implements Searcher {
     if (excludes.isEmpty())
       return includedFilter.build()._toQuery();
 
-    BoolQuery.Builder excludedFilter = new BoolQuery.Builder();
-    excludes.forEach(excludedFilter::should);
-
-    return BoolQuery.of(q -> q.must(includedFilter.build()._toQuery(), excludedFilter.build()._toQuery()))._toQuery();
+    return BoolQuery.of(q -> q.filter(includedFilter.build()._toQuery()).mustNot(excludes))._toQuery();
   }
 
   /**
-   * Returns the default source filtering fields. A NULL signifies the whole
-   * source to be included
+   * Source fields of the query with the mandatory ones, in a new list: the query fields are left untouched. A null
+   * signifies the whole source to be included.
    */
-  private List<String> getSourceFields(Query query, List<String> mandatorySourceFields) {
+  @Nullable
+  private List<String> getSourceFields(Query query, @Nullable List<String> mandatorySourceFields) {
     List<String> sourceFields = query.getSourceFields();
 
-    if (sourceFields != null && !sourceFields.isEmpty()) {
-      sourceFields.addAll(mandatorySourceFields);
-    }
+    if (sourceFields == null || sourceFields.isEmpty() || mandatorySourceFields == null)
+      return sourceFields;
 
-    return sourceFields;
+    return ImmutableSet.<String>builder().addAll(sourceFields).addAll(mandatorySourceFields).build().asList();
   }
 
-  private ElasticsearchClient getClient() {
-    return esSearchService.getClient();
+  private ElasticsearchClient getClient(Operation operation) {
+    return esSearchService.getClient(operation);
   }
 
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.FieldAndFormat;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import co.elastic.clients.elasticsearch.core.search.SourceFilter;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Fields of the documents to be returned by a search: the included and excluded source fields (all when none is
+ * included), or doc values of keyword fields that are read without loading the source.
+ */
+public final class ESSourceProjection {
+
+  /**
+   * The whole source.
+   */
+  public static final ESSourceProjection ALL = new ESSourceProjection(ImmutableList.of(), ImmutableList.of(), false);
+
+  private final List<String> includes;
+
+  private final List<String> excludes;
+
+  private final boolean docValues;
+
+  private ESSourceProjection(List<String> includes, List<String> excludes, boolean docValues) {
+    this.includes = includes;
+    this.excludes = excludes;
+    this.docValues = docValues;
+  }
+
+  public static ESSourceProjection of(Collection<String> includes, Collection<String> excludes) {
+    return new ESSourceProjection(ImmutableList.copyOf(includes), ImmutableList.copyOf(excludes), false);
+  }
+
+  public static ESSourceProjection includes(String... fields) {
+    return new ESSourceProjection(ImmutableList.copyOf(fields), ImmutableList.of(), false);
+  }
+
+  /**
+   * The included fields are keywords (or other types with doc values): they are read from the doc values and the
+   * source is not returned.
+   */
+  public static ESSourceProjection docValues(String... fields) {
+    return new ESSourceProjection(ImmutableList.copyOf(fields), ImmutableList.of(), true);
+  }
+
+  public List<String> getIncludes() {
+    return includes;
+  }
+
+  public List<String> getExcludes() {
+    return excludes;
+  }
+
+  public boolean isDocValues() {
+    return docValues;
+  }
+
+  /**
+   * Apply the source filtering (or the doc value fields) to the search request.
+   */
+  SearchRequest.Builder apply(SearchRequest.Builder builder) {
+    if (docValues) {
+      List<FieldAndFormat> fields = includes.stream()
+          .map(f -> FieldAndFormat.of(ff -> ff.field(f)))
+          .collect(Collectors.toList());
+      return builder.source(SourceConfig.of(s -> s.fetch(false))).docvalueFields(fields);
+    }
+    if (includes.isEmpty() && excludes.isEmpty())
+      return builder;
+    return builder.source(SourceConfig.of(s -> s.filter(SourceFilter.of(f -> f.includes(includes)
+        .excludes(excludes)))));
+  }
+}
@@ -11,16 +11,21 @@
 package org.obiba.es.mica.mapping;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.xcontent.XContentBuilder;
+import org.obiba.es.mica.ESIndexFieldMapping;
 import org.obiba.es.mica.ESSearchEngineService;
+import org.obiba.es.mica.support.TaxonomyFingerprint;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
 import org.obiba.mica.spi.search.SearchEngineService;
@@ -30,10 +35,13 @@ import org.obiba.opal.core.domain.taxonomy.Vocabulary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
 
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
 
 public abstract class AbstractIndexConfiguration implements Indexer.IndexConfigurationListener {
   private static final Logger log = LoggerFactory.getLogger(AbstractIndexConfiguration.class);
@@ -48,10 +56,84 @@ public abstract class AbstractIndexConfiguration implements Indexer.IndexConfigu
 
   private final ConfigurationProvider configurationProvider;
 
+  private boolean wildcardSubfield = false;
+
+  private boolean indexPrefixes = false;
+
+  // mapping JSON by index name, with the locales, roles and taxonomy content it was generated from
+  private final Map<String, CachedMapping> mappings = new ConcurrentHashMap<>();
+
   AbstractIndexConfiguration(ConfigurationProvider configurationProvider) {
     this.configurationProvider = configurationProvider;
   }
 
+  /**
+   * Map a wildcard-type subfield to the analyzed keyword fields, for the like() patterns that are not prefixes.
+   */
+  public void setWildcardSubfield(boolean wildcardSubfield) {
+    this.wildcardSubfield = wildcardSubfield;
+    mappings.clear();
+  }
+
+  /**
+   * Index the prefixes of the analyzed text subfields, for the prefix terms of the full text queries.
+   */
+  public void setIndexPrefixes(boolean indexPrefixes) {
+    this.indexPrefixes = indexPrefixes;
+    mappings.clear();
+  }
+
+  /**
+   * Names of the indices which mapping is defined by this configuration.
+   */
+  public abstract List<String> getIndexNames();
+
+  /**
+   * Complete mapping of one of the indices of this configuration, as JSON. The mapping is generated again only when
+   * the locales, the roles or the taxonomy it depends on have changed.
+   */
+  public String getMapping(String indexName) throws IOException {
+    List<String> locales = Lists.newArrayList(configurationProvider.getLocales());
+    List<String> roles = Lists.newArrayList(configurationProvider.getRoles());
+    HashCode fingerprint = getTaxonomyFingerprint();
+
+    CachedMapping cached = mappings.get(indexName);
+    if (cached != null && cached.isValid(locales, roles, fingerprint))
+      return cached.json;
+
+    String json = Strings.toString(createMapping(indexName));
+    // the generation adds vocabularies for the document fields to the taxonomy, the mapping is valid for the taxonomy
+    // content before and after, whether the configuration provider returns the same taxonomy instance or a new one
+    mappings.put(indexName, new CachedMapping(locales, roles,
+        ImmutableSet.of(fingerprint, getTaxonomyFingerprint()), json));
+    return json;
+  }
+
+  private HashCode getTaxonomyFingerprint() {
+    return TaxonomyFingerprint.of(getTarget() == null ? null : getTaxonomy());
+  }
+
+
+  /**
+   * Put the mapping of the index once it is created, when no index template applies to it.
+   */
+  @Override
+  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
+    if (!getIndexNames().contains(indexName))
+      return;
+
+    try {
+      String mapping = getMapping(indexName);
+      getClient(searchEngineService)
+          .indices()
+          .putMapping(PutMappingRequest.of(r -> r.index(indexName).withJson(new StringReader(mapping))));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  protected abstract XContentBuilder createMapping(String indexName) throws IOException;
+
   protected ElasticsearchClient getClient(SearchEngineService searchEngineService) {
     return ((ESSearchEngineService) searchEngineService).getClient();
   }
@@ -140,9 +222,13 @@ public abstract class AbstractIndexConfiguration implements Indexer.IndexConfigu
         .startObject()
         .field("type", "text")
         .field("analyzer", "mica_index_analyzer")
-        .field("search_analyzer", "mica_search_analyzer")
-        .endObject()
-        .endObject();
+        .field("search_analyzer", "mica_search_analyzer");
+    if (indexPrefixes)
+      mapping.startObject("index_prefixes").endObject();
+    mapping.endObject();
+    if (wildcardSubfield)
+      mapping.startObject(ESIndexFieldMapping.WILDCARD_SUBFIELD).field("type", "wildcard").endObject();
+    mapping.endObject();
   }
 
   protected void appendMembershipProperties(XContentBuilder mapping) throws IOException {
@@ -257,6 +343,32 @@ public abstract class AbstractIndexConfiguration implements Indexer.IndexConfigu
     return new VocabularyBuilder();
   }
 
+  /**
+   * Mapping JSON with what it was generated from: locales, roles and the content of the taxonomy of the target.
+   */
+  private static final class CachedMapping {
+
+    private final List<String> locales;
+
+    private final List<String> roles;
+
+    private final Set<HashCode> taxonomyFingerprints;
+
+    private final String json;
+
+    CachedMapping(List<String> locales, List<String> roles, Set<HashCode> taxonomyFingerprints, String json) {
+      this.locales = locales;
+      this.roles = roles;
+      this.taxonomyFingerprints = taxonomyFingerprints;
+      this.json = json;
+    }
+
+    boolean isValid(List<String> locales, List<String> roles, HashCode taxonomyFingerprint) {
+      return this.locales.equals(locales) && this.roles.equals(roles)
+          && taxonomyFingerprints.contains(taxonomyFingerprint);
+    }
+  }
+
   private class SchemaNode {
     String name;
     private List<SchemaNode> children = Lists.newArrayList();
@@ -10,47 +10,39 @@
 
 package org.obiba.es.mica.mapping;
 
+import com.google.common.collect.ImmutableList;
 import org.elasticsearch.client.RequestOptions;
-import org.elasticsearch.common.Strings;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
-import org.obiba.mica.spi.search.SearchEngineService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
-
 import java.io.IOException;
-import java.io.StringReader;
+import java.util.List;
 
 public class FileIndexConfiguration extends AbstractIndexConfiguration {
   private static final Logger log = LoggerFactory.getLogger(FileIndexConfiguration.class);
 
+  private static final List<String> INDEX_NAMES = ImmutableList.of(Indexer.ATTACHMENT_DRAFT_INDEX,
+      Indexer.ATTACHMENT_PUBLISHED_INDEX);
+
   public FileIndexConfiguration(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
   }
 
   @Override
-  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
-    if (Indexer.ATTACHMENT_DRAFT_INDEX.equals(indexName) ||
-        Indexer.ATTACHMENT_PUBLISHED_INDEX.equals(indexName)) {
-      try {
-        String attachmentField = Indexer.ATTACHMENT_DRAFT_INDEX.equals(indexName)
-            ? "attachment"
-            : "publishedAttachment";
-
-        XContentBuilder properties = createMappingProperties(Indexer.ATTACHMENT_TYPE, attachmentField);
+  public List<String> getIndexNames() {
+    return INDEX_NAMES;
+  }
 
-        getClient(searchEngineService)
-            .indices()
-            .putMapping(
-                PutMappingRequest.of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(properties)))));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    }
+  @Override
+  protected XContentBuilder createMapping(String indexName) throws IOException {
+    String attachmentField = Indexer.ATTACHMENT_DRAFT_INDEX.equals(indexName)
+        ? "attachment"
+        : "publishedAttachment";
+    return createMappingProperties(Indexer.ATTACHMENT_TYPE, attachmentField);
   }
 
   private XContentBuilder createMappingProperties(String type, String attachmentField) throws IOException {
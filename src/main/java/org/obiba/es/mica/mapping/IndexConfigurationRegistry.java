@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.mapping;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.obiba.mica.spi.search.Indexer;
+import org.obiba.mica.spi.search.SearchEngineService;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index configurations by the name of the index they define, so that the creation of an index only involves the
+ * configuration that owns it. The listeners that do not declare their indices are notified of every index creation.
+ */
+public class IndexConfigurationRegistry {
+
+  private final Map<String, AbstractIndexConfiguration> configurations;
+
+  private final List<Indexer.IndexConfigurationListener> otherListeners;
+
+  public IndexConfigurationRegistry(Collection<? extends Indexer.IndexConfigurationListener> listeners) {
+    Map<String, AbstractIndexConfiguration> configurationsByIndex = new LinkedHashMap<>();
+    ImmutableList.Builder<Indexer.IndexConfigurationListener> others = ImmutableList.builder();
+    for (Indexer.IndexConfigurationListener listener : listeners) {
+      if (listener instanceof AbstractIndexConfiguration) {
+        AbstractIndexConfiguration configuration = (AbstractIndexConfiguration) listener;
+        configuration.getIndexNames().forEach(indexName -> {
+          if (configurationsByIndex.putIfAbsent(indexName, configuration) != null)
+            throw new IllegalArgumentException("Index " + indexName + " has several configurations");
+        });
+      } else {
+        others.add(listener);
+      }
+    }
+    configurations = ImmutableMap.copyOf(configurationsByIndex);
+    otherListeners = others.build();
+  }
+
+  public Set<String> getIndexNames() {
+    return configurations.keySet();
+  }
+
+  @Nullable
+  public AbstractIndexConfiguration getConfiguration(String indexName) {
+    return configurations.get(indexName);
+  }
+
+  /**
+   * Notify the configuration of the index and the listeners without declared indices.
+   */
+  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
+    onIndexCreated(searchEngineService, indexName, false);
+  }
+
+  /**
+   * Notify the listeners of the index creation, but the configuration of the index if its mapping was applied by an
+   * index template.
+   */
+  public void onIndexCreated(SearchEngineService searchEngineService, String indexName, boolean fromTemplate) {
+    AbstractIndexConfiguration configuration = configurations.get(indexName);
+    if (configuration != null && !fromTemplate)
+      configuration.onIndexCreated(searchEngineService, indexName);
+    otherListeners.forEach(listener -> listener.onIndexCreated(searchEngineService, indexName));
+  }
+}
@@ -10,41 +10,34 @@
 
 package org.obiba.es.mica.mapping;
 
-import org.elasticsearch.common.Strings;
+import com.google.common.collect.ImmutableList;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
-import org.obiba.mica.spi.search.SearchEngineService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
-
 import java.io.IOException;
-import java.io.StringReader;
+import java.util.List;
 
 public class PersonIndexConfiguration extends AbstractIndexConfiguration {
   private static final Logger log = LoggerFactory.getLogger(PersonIndexConfiguration.class);
 
+  private static final List<String> INDEX_NAMES = ImmutableList.of(Indexer.PERSON_INDEX);
+
   public PersonIndexConfiguration(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
   }
 
   @Override
-  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
-    if (Indexer.PERSON_INDEX.equals(indexName)) {
-      try {
-        XContentBuilder properties = createMappingProperties(Indexer.PERSON_TYPE);
+  public List<String> getIndexNames() {
+    return INDEX_NAMES;
+  }
 
-        getClient(searchEngineService)
-            .indices()
-            .putMapping(
-                PutMappingRequest.of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(properties)))));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    }
+  @Override
+  protected XContentBuilder createMapping(String indexName) throws IOException {
+    return createMappingProperties(Indexer.PERSON_TYPE);
   }
 
   private XContentBuilder createMappingProperties(String type) throws IOException {
@@ -10,44 +10,36 @@
 
 package org.obiba.es.mica.mapping;
 
-import org.elasticsearch.common.Strings;
+import com.google.common.collect.ImmutableList;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
-import org.obiba.mica.spi.search.SearchEngineService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
-
 import java.io.IOException;
-import java.io.StringReader;
+import java.util.List;
 import java.util.stream.Stream;
 
 public class ProjectIndexConfiguration extends AbstractIndexConfiguration {
   private static final Logger log = LoggerFactory.getLogger(ProjectIndexConfiguration.class);
 
+  private static final List<String> INDEX_NAMES = ImmutableList.of(Indexer.DRAFT_PROJECT_INDEX,
+      Indexer.PUBLISHED_PROJECT_INDEX);
+
   public ProjectIndexConfiguration(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
   }
 
   @Override
-  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
-    if (Indexer.DRAFT_PROJECT_INDEX.equals(indexName) ||
-        Indexer.PUBLISHED_PROJECT_INDEX.equals(indexName)) {
-
-      try {
-        XContentBuilder properties = createMappingProperties();
+  public List<String> getIndexNames() {
+    return INDEX_NAMES;
+  }
 
-        getClient(searchEngineService)
-            .indices()
-            .putMapping(
-                PutMappingRequest.of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(properties)))));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    }
+  @Override
+  protected XContentBuilder createMapping(String indexName) throws IOException {
+    return createMappingProperties();
   }
 
   private XContentBuilder createMappingProperties() throws IOException {
@@ -10,47 +10,39 @@
 
 package org.obiba.es.mica.mapping;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 
-import org.elasticsearch.common.Strings;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
-import org.obiba.mica.spi.search.SearchEngineService;
 import org.obiba.mica.spi.search.TaxonomyTarget;
 import org.obiba.opal.core.domain.taxonomy.Taxonomy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
-
 import java.io.IOException;
-import java.io.StringReader;
 import java.util.List;
 
 public class StudyIndexConfiguration extends AbstractIndexConfiguration {
   private static final Logger log = LoggerFactory.getLogger(StudyIndexConfiguration.class);
 
+  private static final List<String> INDEX_NAMES = ImmutableList.of(Indexer.DRAFT_STUDY_INDEX,
+      Indexer.PUBLISHED_STUDY_INDEX);
+
   public StudyIndexConfiguration(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
   }
 
   @Override
-  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
-    if (Indexer.DRAFT_STUDY_INDEX.equals(indexName) || Indexer.PUBLISHED_STUDY_INDEX.equals(indexName)) {
-
-      try {
-        XContentBuilder properties = createMappingProperties();
+  public List<String> getIndexNames() {
+    return INDEX_NAMES;
+  }
 
-        getClient(searchEngineService)
-            .indices()
-            .putMapping(
-                PutMappingRequest.of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(properties)))));
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    }
+  @Override
+  protected XContentBuilder createMapping(String indexName) throws IOException {
+    return createMappingProperties();
   }
 
   private XContentBuilder createMappingProperties() throws IOException {
@@ -10,45 +10,37 @@
 
 package org.obiba.es.mica.mapping;
 
-import org.elasticsearch.common.Strings;
+import com.google.common.collect.ImmutableList;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
-import org.obiba.mica.spi.search.SearchEngineService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.bind.annotation.GetMapping;
-
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.util.List;
 import java.util.stream.Stream;
 
 public class TaxonomyIndexConfiguration extends AbstractIndexConfiguration {
 
   private static final Logger log = LoggerFactory.getLogger(TaxonomyIndexConfiguration.class);
 
+  private static final List<String> INDEX_NAMES = ImmutableList.of(Indexer.TAXONOMY_INDEX, Indexer.VOCABULARY_INDEX,
+      Indexer.TERM_INDEX);
+
   public TaxonomyIndexConfiguration(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
   }
 
   @Override
-  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
-    try {
-      XContentBuilder mapping = getMappingFromIndexName(indexName);
-
-      if (mapping != null) {
-        getClient(searchEngineService)
-            .indices()
-            .putMapping(
-                PutMappingRequest.of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(mapping)))));
-      }
+  public List<String> getIndexNames() {
+    return INDEX_NAMES;
+  }
 
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+  @Override
+  protected XContentBuilder createMapping(String indexName) throws IOException {
+    return getMappingFromIndexName(indexName);
   }
 
   private XContentBuilder getMappingFromIndexName(String indexName) throws IOException {
@@ -10,57 +10,39 @@
 
 package org.obiba.es.mica.mapping;
 
-import org.elasticsearch.common.Strings;
+import com.google.common.collect.ImmutableList;
 import org.elasticsearch.xcontent.XContentBuilder;
 import org.elasticsearch.xcontent.XContentFactory;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.Indexer;
-import org.obiba.mica.spi.search.SearchEngineService;
-
-import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch.indices.PutMappingRequest;
 
 import java.io.IOException;
-import java.io.StringReader;
+import java.util.List;
 import java.util.stream.Stream;
 
 public class VariableIndexConfiguration extends AbstractIndexConfiguration {
 
+  private static final List<String> INDEX_NAMES = ImmutableList.of(Indexer.PUBLISHED_VARIABLE_INDEX,
+      Indexer.PUBLISHED_HVARIABLE_INDEX);
+
   public VariableIndexConfiguration(ConfigurationProvider configurationProvider) {
     super(configurationProvider);
   }
 
   @Override
-  public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
-    if (Indexer.PUBLISHED_VARIABLE_INDEX.equals(indexName)) {
-      setMappingProperties(getClient(searchEngineService), indexName);
-    }
-    if (Indexer.PUBLISHED_HVARIABLE_INDEX.equals(indexName)) {
-      setMappingProperties(getClient(searchEngineService), indexName);
-    }
+  public List<String> getIndexNames() {
+    return INDEX_NAMES;
   }
 
-  private void setMappingProperties(ElasticsearchClient client, String indexName) {
-    try {
-
-      XContentBuilder harmonizedmapping = createMappingProperties(Indexer.HARMONIZED_VARIABLE_TYPE);
-      XContentBuilder defaultMapping = createMappingProperties(Indexer.VARIABLE_TYPE);
-
-      client
-          .indices()
-          .putMapping(PutMappingRequest
-              .of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(harmonizedmapping)))));
-
-      client
-          .indices()
-          .putMapping(PutMappingRequest
-              .of(r -> r.index(indexName).withJson(new StringReader(Strings.toString(defaultMapping)))));
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
+  @Override
+  protected XContentBuilder createMapping(String indexName) throws IOException {
+    return createMappingProperties();
   }
 
-  private XContentBuilder createMappingProperties(String type) throws IOException {
+  /**
+   * Mapping of the variables and of the harmonized variables (which have also a table type and a source).
+   */
+  private XContentBuilder createMappingProperties() throws IOException {
     XContentBuilder mapping = XContentFactory.jsonBuilder().startObject();
     mapping.startArray("dynamic_templates").startObject().startObject("und").field("match", "und")
         .field("match_mapping_type", "string").startObject("mapping").field("type", "keyword")
@@ -74,10 +56,8 @@ public class VariableIndexConfiguration extends AbstractIndexConfiguration {
     createMappingWithoutAnalyzer(mapping, "populationId");
     createMappingWithoutAnalyzer(mapping, "dceId");
     createMappingWithoutAnalyzer(mapping, "datasetId");
-    if (Indexer.HARMONIZED_VARIABLE_TYPE.equals(type)) {
-      createMappingWithoutAnalyzer(mapping, "opalTableType");
-      createMappingWithoutAnalyzer(mapping, "source");
-    }
+    createMappingWithoutAnalyzer(mapping, "opalTableType");
+    createMappingWithoutAnalyzer(mapping, "source");
     createMappingWithAndWithoutAnalyzer(mapping, "name");
     createMappingWithoutAnalyzer(mapping, "entityType");
     createMappingWithoutAnalyzer(mapping, "variableType");
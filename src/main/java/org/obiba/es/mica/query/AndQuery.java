@@ -10,15 +10,13 @@
 
 package org.obiba.es.mica.query;
 
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.elasticsearch.index.query.QueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.sort.SortBuilder;
 import org.obiba.es.mica.ESQuery;
 import org.obiba.mica.spi.search.support.Query;
 
+import co.elastic.clients.elasticsearch._types.SortOptions;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 
 import java.util.List;
@@ -62,7 +60,7 @@ public class AndQuery implements ESQuery {
 
     BoolQuery.Builder builder = new BoolQuery.Builder();
     queries.stream().filter(ESQuery::hasQueryBuilder).forEach(q -> builder.must(q.getQueryBuilder()));
-    return builder.build()._toQuery();
+    return BoolQueryOptimizer.optimize(builder.build()._toQuery());
   }
 
   @Override
@@ -71,17 +69,17 @@ public class AndQuery implements ESQuery {
   }
 
   @Override
-  public List<SortBuilder> getSortBuilders() {
-    List<SortBuilder> sorts = Lists.newArrayList();
+  public List<SortOptions> getSortBuilders() {
+    List<SortOptions> sorts = Lists.newArrayList();
     queries.stream().filter(ESQuery::hasSortBuilders).forEach(q -> sorts.addAll(q.getSortBuilders()));
     return sorts;
   }
 
   @Override
   public List<String> getSourceFields() {
-    List<String> fields = Lists.newArrayList();
+    ImmutableSet.Builder<String> fields = ImmutableSet.builder();
     queries.forEach(q -> fields.addAll(q.getSourceFields()));
-    return fields;
+    return fields.build().asList();
   }
 
   @Override
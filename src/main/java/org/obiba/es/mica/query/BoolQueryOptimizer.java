@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchAllQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.TermsQuery;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Simplifies the bool trees built from the RQL nodes, without changing the matched documents:
+ * <ul>
+ * <li>nested bools are flattened into their parent and single clause bools are unwrapped,</li>
+ * <li>double negations are removed and negated disjunctions become must_not clauses,</li>
+ * <li>sibling term/terms clauses on the same field are merged into one terms query when they are alternatives
+ * (should, must_not),</li>
+ * <li>match_all is removed from conjunctions,</li>
+ * <li>term, terms, range, exists and ids leaves of a conjunction run in filter context (no scoring, cacheable).</li>
+ * </ul>
+ * Bools with a boost, a name or a minimum_should_match are kept as they are, only their clauses are simplified.
+ */
+public final class BoolQueryOptimizer {
+
+  private static final Query MATCH_ALL_QUERY = new MatchAllQuery.Builder().build()._toQuery();
+
+  private BoolQueryOptimizer() {
+  }
+
+  public static Query optimize(@Nullable Query query) {
+    if (query == null || !query.isBool())
+      return query;
+
+    BoolQuery bool = query.bool();
+    boolean plain = isPlain(bool);
+    List<Query> must = Lists.newArrayList();
+    List<Query> filter = Lists.newArrayList();
+    List<Query> should = Lists.newArrayList();
+    List<Query> mustNot = Lists.newArrayList();
+
+    bool.must().forEach(q -> addMust(optimize(q), must, filter, mustNot));
+    bool.filter().forEach(q -> addFilter(optimize(q), filter, mustNot));
+    bool.mustNot().forEach(q -> addMustNot(optimize(q), filter, mustNot));
+    bool.should().forEach(q -> addShould(optimize(q), should, bool.minimumShouldMatch() == null));
+
+    removeMatchAll(must, filter);
+    if (bool.minimumShouldMatch() == null)
+      mergeTerms(should);
+    mergeTerms(mustNot);
+
+    // should clauses are optional as soon as there is a conjunction, keep one if it was flattened away
+    boolean hadConjunction = !bool.must().isEmpty() || !bool.filter().isEmpty();
+    if (hadConjunction && must.isEmpty() && filter.isEmpty() && !should.isEmpty())
+      filter.add(MATCH_ALL_QUERY);
+
+    if (plain && filter.isEmpty() && should.isEmpty() && mustNot.isEmpty() && must.size() == 1)
+      return must.get(0);
+    if (plain && must.isEmpty() && filter.isEmpty() && mustNot.isEmpty() && should.size() == 1)
+      return should.get(0);
+
+    return BoolQuery.of(b -> b.must(must)
+        .filter(filter)
+        .should(should)
+        .mustNot(mustNot)
+        .minimumShouldMatch(bool.minimumShouldMatch())
+        .boost(bool.boost())
+        .queryName(bool.queryName()))._toQuery();
+  }
+
+  //
+  // Private methods
+  //
+
+  private static void addMust(Query query, List<Query> must, List<Query> filter, List<Query> mustNot) {
+    if (isPlainBool(query) && query.bool().should().isEmpty()) {
+      BoolQuery bool = query.bool();
+      must.addAll(bool.must());
+      filter.addAll(bool.filter());
+      mustNot.addAll(bool.mustNot());
+    } else if (isNonScoring(query)) {
+      filter.add(query);
+    } else {
+      must.add(query);
+    }
+  }
+
+  private static void addFilter(Query query, List<Query> filter, List<Query> mustNot) {
+    if (isPlainBool(query) && query.bool().should().isEmpty()) {
+      BoolQuery bool = query.bool();
+      filter.addAll(bool.must());
+      filter.addAll(bool.filter());
+      mustNot.addAll(bool.mustNot());
+    } else {
+      filter.add(query);
+    }
+  }
+
+  private static void addMustNot(Query query, List<Query> filter, List<Query> mustNot) {
+    if (isPlainBool(query)) {
+      BoolQuery bool = query.bool();
+      boolean onlyMustNot = bool.must().isEmpty() && bool.filter().isEmpty() && bool.should().isEmpty();
+      boolean onlyShould = bool.must().isEmpty() && bool.filter().isEmpty() && bool.mustNot().isEmpty();
+      if (onlyMustNot && bool.mustNot().size() == 1) {
+        // not(not(x)) is x, not scored as it comes from a negation
+        addFilter(bool.mustNot().get(0), filter, mustNot);
+        return;
+      }
+      if (onlyShould && !bool.should().isEmpty()) {
+        // not(x or y) is not(x) and not(y)
+        bool.should().forEach(q -> addMustNot(q, filter, mustNot));
+        return;
+      }
+    }
+    mustNot.add(query);
+  }
+
+  private static void addShould(Query query, List<Query> should, boolean flatten) {
+    if (flatten && isPlainBool(query)) {
+      BoolQuery bool = query.bool();
+      if (bool.must().isEmpty() && bool.filter().isEmpty() && bool.mustNot().isEmpty() && !bool.should().isEmpty()) {
+        should.addAll(bool.should());
+        return;
+      }
+    }
+    should.add(query);
+  }
+
+  private static void removeMatchAll(List<Query> must, List<Query> filter) {
+    boolean hasOther = must.stream().anyMatch(q -> !isPlainMatchAll(q))
+        || filter.stream().anyMatch(q -> !isPlainMatchAll(q));
+    if (hasOther) {
+      must.removeIf(BoolQueryOptimizer::isPlainMatchAll);
+      filter.removeIf(BoolQueryOptimizer::isPlainMatchAll);
+    }
+  }
+
+  /**
+   * Replace the term and terms clauses on the same field by a single terms query, in place of the first of them.
+   */
+  private static void mergeTerms(List<Query> clauses) {
+    Map<String, Map<Object, FieldValue>> valuesByField = Maps.newLinkedHashMap();
+    Map<String, Integer> countByField = Maps.newHashMap();
+    for (Query clause : clauses) {
+      String field = getMergeableField(clause);
+      if (field != null) {
+        Map<Object, FieldValue> values = valuesByField.computeIfAbsent(field, f -> Maps.newLinkedHashMap());
+        if (clause.isTerm())
+          values.putIfAbsent(clause.term().value()._get(), clause.term().value());
+        else
+          clause.terms().terms().value().forEach(v -> values.putIfAbsent(v._get(), v));
+        countByField.merge(field, 1, Integer::sum);
+      }
+    }
+    if (countByField.values().stream().noneMatch(count -> count > 1))
+      return;
+
+    List<Query> merged = Lists.newArrayList();
+    for (Query clause : clauses) {
+      String field = getMergeableField(clause);
+      if (field == null || countByField.get(field) == 1) {
+        merged.add(clause);
+      } else if (valuesByField.containsKey(field)) {
+        List<FieldValue> values = Lists.newArrayList(valuesByField.remove(field).values());
+        merged.add(TermsQuery.of(q -> q.field(field).terms(t -> t.value(values)))._toQuery());
+      }
+    }
+    clauses.clear();
+    clauses.addAll(merged);
+  }
+
+  @Nullable
+  private static String getMergeableField(Query query) {
+    if (query.isTerm() && query.term().boost() == null && query.term().queryName() == null
+        && !Boolean.TRUE.equals(query.term().caseInsensitive()))
+      return query.term().field();
+    if (query.isTerms() && query.terms().boost() == null && query.terms().queryName() == null
+        && query.terms().terms().isValue())
+      return query.terms().field();
+    return null;
+  }
+
+  private static boolean isNonScoring(Query query) {
+    return query.isTerm() || query.isTerms() || query.isRange() || query.isExists() || query.isIds();
+  }
+
+  private static boolean isPlainMatchAll(Query query) {
+    return query.isMatchAll() && query.matchAll().boost() == null && query.matchAll().queryName() == null;
+  }
+
+  private static boolean isPlainBool(Query query) {
+    return query.isBool() && isPlain(query.bool());
+  }
+
+  private static boolean isPlain(BoolQuery bool) {
+    return bool.boost() == null && bool.queryName() == null && bool.minimumShouldMatch() == null;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import net.jazdw.rql.parser.ASTNode;
+import org.obiba.mica.spi.search.rql.RQLFieldResolver;
+import org.obiba.mica.spi.search.rql.RQLNode;
+
+import java.util.Collection;
+
+/**
+ * Cost of a RQL query: each clause costs one unit, a terms clause grows with the logarithm of its count of values (it
+ * is a single clause, whatever its length), patterns scanning the term dictionary (leading wildcard,
+ * regular expression, fuzzy) cost much more and full text queries are multiplied by the count of fields they are
+ * expanded to.
+ */
+public class DefaultRQLCostEstimator implements RQLCostEstimator {
+
+  static final long TERM_COST = 1;
+
+  static final long RANGE_COST = 2;
+
+  static final long WILDCARD_COST = 10;
+
+  static final long FUZZY_COST = 50;
+
+  static final long LEADING_WILDCARD_COST = 1000;
+
+  static final long REGEX_COST = 1000;
+
+  @Override
+  public long estimate(ASTNode node, RQLFieldResolver rqlFieldResolver) {
+    RQLNode type;
+    try {
+      type = RQLNode.getType(node.getName());
+    } catch (IllegalArgumentException e) {
+      return estimateArguments(node, rqlFieldResolver);
+    }
+
+    switch (type) {
+      case VARIABLE:
+      case DATASET:
+      case STUDY:
+      case NETWORK:
+      case GENERIC:
+        return estimateArguments(node, rqlFieldResolver);
+      case FILTER:
+      case AND:
+      case NAND:
+      case OR:
+      case NOR:
+      case NOT:
+        return TERM_COST + estimateArguments(node, rqlFieldResolver);
+      case IN:
+      case OUT:
+      case CONTAINS:
+        return estimateTerms(node, rqlFieldResolver);
+      case EQ:
+      case EXISTS:
+      case MISSING:
+        return TERM_COST;
+      case LE:
+      case LT:
+      case GE:
+      case GT:
+      case BETWEEN:
+        return RANGE_COST;
+      case LIKE:
+        return node.getArgumentsSize() > 1 ? estimatePattern(node.getArgument(1).toString()) : TERM_COST;
+      case MATCH:
+        return estimateMatch(node, rqlFieldResolver);
+      case QUERY:
+        return node.getArgumentsSize() > 0
+            ? estimateQueryString(node.getArgument(0).toString().replaceAll("\\+", " "))
+                * (1 + rqlFieldResolver.getAnalzedFields().size())
+            : TERM_COST;
+      default:
+        // limit, sort, aggregate, fields etc. do not apply to the matching of the documents
+        return 0;
+    }
+  }
+
+  //
+  // Private methods
+  //
+
+  private long estimateArguments(ASTNode node, RQLFieldResolver rqlFieldResolver) {
+    long cost = 0;
+    for (Object argument : node.getArguments()) {
+      if (argument instanceof ASTNode)
+        cost += estimate((ASTNode) argument, rqlFieldResolver);
+    }
+    return cost;
+  }
+
+  private long estimateTerms(ASTNode node, RQLFieldResolver rqlFieldResolver) {
+    if (node.getArgumentsSize() < 2)
+      return TERM_COST;
+    Object terms = node.getArgument(1);
+    long count = terms instanceof Collection ? Math.max(1, ((Collection<?>) terms).size()) : 1;
+    boolean range = RQLNode.IN.name().equalsIgnoreCase(node.getName())
+        && rqlFieldResolver.resolveField(node.getArgument(0).toString()).isRange();
+    // each value of a range field is a range clause, the values of other fields make a single terms query
+    if (range)
+      return count * RANGE_COST;
+    return TERM_COST * (64 - Long.numberOfLeadingZeros(count));
+  }
+
+  private long estimateMatch(ASTNode node, RQLFieldResolver rqlFieldResolver) {
+    if (node.getArgumentsSize() == 0)
+      return 0;
+
+    Object terms = node.getArgument(0);
+    long cost = 0;
+    if (terms instanceof Collection) {
+      for (Object term : (Collection<?>) terms)
+        cost += estimateQueryString(term.toString());
+    } else {
+      cost = estimateQueryString(terms.toString());
+    }
+
+    long fields;
+    if (node.getArgumentsSize() > 1)
+      fields = node.getArgument(1) instanceof Collection ? ((Collection<?>) node.getArgument(1)).size() : 1;
+    else
+      fields = 1 + rqlFieldResolver.getAnalzedFields().size();
+
+    return cost * Math.max(1, fields);
+  }
+
+  private long estimateQueryString(String query) {
+    long cost = 0;
+    for (String token : query.trim().split("\\s+")) {
+      if (!token.isEmpty())
+        cost += estimatePattern(token);
+    }
+    return Math.max(TERM_COST, cost);
+  }
+
+  private long estimatePattern(String token) {
+    // field name prefix of a query string term
+    int sep = token.indexOf(':');
+    String value = sep >= 0 ? token.substring(sep + 1) : token;
+    value = value.replaceAll("^[(\"+-]+", "");
+
+    if (value.length() > 1 && value.startsWith("/") && value.endsWith("/"))
+      return REGEX_COST;
+    if (value.startsWith("*") || value.startsWith("?"))
+      return LEADING_WILDCARD_COST;
+    if (value.contains("*") || value.contains("?"))
+      return WILDCARD_COST;
+    if (value.matches(".*~\\d*$"))
+      return FUZZY_COST;
+    return TERM_COST;
+  }
+}
@@ -10,68 +10,54 @@
 
 package org.obiba.es.mica.query;
 
+import com.google.common.annotations.VisibleForTesting;
 import net.jazdw.rql.converter.Converter;
 import net.jazdw.rql.converter.ConverterException;
 import net.jazdw.rql.converter.ValueConverter;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Pattern;
-
 /**
  * Converter that does not make fancy number conversions when 'number:' is not
  * specified.
  */
 class RQLConverter extends Converter {
 
-  RQLConverter() {
+  /**
+   * The converter has no state, it is shared by all the parsers.
+   */
+  static final RQLConverter INSTANCE = new RQLConverter();
+
+  private RQLConverter() {
     super(new AutoValueConverter(), CONVERTERS);
   }
 
-  private static class AutoValueConverter implements ValueConverter {
-    /**
-     * The default automatic conversion map
-     */
-    public static final Map<String, Object> DEFAULT_CONVERSIONS = new HashMap<>();
-    static {
-      DEFAULT_CONVERSIONS.put("true", Boolean.TRUE);
-      DEFAULT_CONVERSIONS.put("false", Boolean.FALSE);
-      DEFAULT_CONVERSIONS.put("null", null);
-      DEFAULT_CONVERSIONS.put("Infinity", Double.POSITIVE_INFINITY);
-      DEFAULT_CONVERSIONS.put("-Infinity", Double.NEGATIVE_INFINITY);
-    }
-
-    // detects ISO 8601 dates with a minimum of year, month and day specified
-    private static final Pattern DATE_PATTERN = Pattern.compile(
-        "^[0-9]{4}-(1[0-2]|0[1-9])-(3[01]|0[1-9]|[12][0-9])(T(2[0-3]|[01][0-9])(:[0-5][0-9])?(:[0-5][0-9])?(\\.[0-9][0-9]?[0-9]?)?(Z|[+-](?:2[0-3]|[01][0-9])(?::?(?:[0-5][0-9]))?)?)?$");
-
-    private static final Pattern NUMBER_PATTERN = Pattern.compile("^[0-9]+[\\.]*[0-9]*$");
-
-    private Map<String, Object> conversions;
-
-    AutoValueConverter() {
-      this(DEFAULT_CONVERSIONS);
-    }
-
-    AutoValueConverter(Map<String, Object> autoConversionMap) {
-      conversions = new HashMap<>(autoConversionMap);
-    }
+  @VisibleForTesting
+  static class AutoValueConverter implements ValueConverter {
 
     public Object convert(String input) throws ConverterException {
       try {
-        if (conversions.containsKey(input)) {
-          return conversions.get(input);
+        switch (input) {
+          case "true":
+            return Boolean.TRUE;
+          case "false":
+            return Boolean.FALSE;
+          case "null":
+            return null;
+          case "Infinity":
+            return Double.POSITIVE_INFINITY;
+          case "-Infinity":
+            return Double.NEGATIVE_INFINITY;
+          default:
         }
 
         try {
-          if (NUMBER_PATTERN.matcher(input).matches()) {
+          if (isNumber(input)) {
             return Converter.NUMBER.convert(input);
           }
         } catch (ConverterException e) {
         }
 
         try {
-          if (DATE_PATTERN.matcher(input).matches()) {
+          if (isDate(input)) {
             return Converter.DATE.convert(input);
           }
         } catch (ConverterException e) {
@@ -82,6 +68,98 @@ class RQLConverter extends Converter {
         throw new ConverterException(e);
       }
     }
+
+    /**
+     * Digits, optionally followed by dots and digits (same as <code>^[0-9]+[\.]*[0-9]*$</code>).
+     */
+    static boolean isNumber(String input) {
+      int length = input.length();
+      int i = skipDigits(input, 0);
+      if (i == 0)
+        return false;
+      while (i < length && input.charAt(i) == '.')
+        i++;
+      return skipDigits(input, i) == length;
+    }
+
+    /**
+     * ISO 8601 date with a minimum of year, month and day specified, optionally followed by a time with hours and
+     * optional minutes, seconds, milliseconds and time zone.
+     */
+    static boolean isDate(String input) {
+      int length = input.length();
+      // yyyy-MM-dd
+      if (length < 10 || !isDigits(input, 0, 4) || input.charAt(4) != '-' || input.charAt(7) != '-')
+        return false;
+      int month = twoDigits(input, 5);
+      int day = twoDigits(input, 8);
+      if (month < 1 || month > 12 || day < 1 || day > 31)
+        return false;
+      if (length == 10)
+        return true;
+
+      // Thh
+      if (input.charAt(10) != 'T' || twoDigits(input, 11) < 0 || twoDigits(input, 11) > 23)
+        return false;
+      int i = 13;
+      // :mm and :ss
+      for (int n = 0; n < 2 && i < length && input.charAt(i) == ':'; n++) {
+        int value = twoDigits(input, i + 1);
+        if (value < 0 || value > 59)
+          return false;
+        i += 3;
+      }
+      // .SSS
+      if (i < length && input.charAt(i) == '.') {
+        int digits = skipDigits(input, i + 1) - i - 1;
+        if (digits < 1 || digits > 3)
+          return false;
+        i += digits + 1;
+      }
+      if (i == length)
+        return true;
+
+      // Z or +hh[[:]mm]
+      char zone = input.charAt(i);
+      if (zone == 'Z')
+        return i + 1 == length;
+      if (zone != '+' && zone != '-')
+        return false;
+      int hours = twoDigits(input, i + 1);
+      if (hours < 0 || hours > 23)
+        return false;
+      i += 3;
+      if (i < length && input.charAt(i) == ':')
+        i++;
+      if (i == length)
+        return input.charAt(i - 1) != ':';
+      int minutes = twoDigits(input, i);
+      return minutes >= 0 && minutes <= 59 && i + 2 == length;
+    }
+
+    private static int skipDigits(String input, int from) {
+      int i = from;
+      while (i < input.length() && isDigit(input.charAt(i)))
+        i++;
+      return i;
+    }
+
+    private static boolean isDigits(String input, int from, int count) {
+      return skipDigits(input, from) - from >= count;
+    }
+
+    /**
+     * Value of the two digits at the position, -1 if there are no two digits.
+     */
+    private static int twoDigits(String input, int from) {
+      if (from + 2 > input.length() || !isDigit(input.charAt(from)) || !isDigit(input.charAt(from + 1)))
+        return -1;
+      return (input.charAt(from) - '0') * 10 + input.charAt(from + 1) - '0';
+    }
+
+    private static boolean isDigit(char c) {
+      return c >= '0' && c <= '9';
+    }
   }
 
 }
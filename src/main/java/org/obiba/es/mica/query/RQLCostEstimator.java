@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import net.jazdw.rql.parser.ASTNode;
+import org.obiba.mica.spi.search.rql.RQLFieldResolver;
+
+/**
+ * Estimates the cost of executing a RQL query node, in arbitrary units compared with the budget of the
+ * {@link RQLQueryGuard}.
+ */
+public interface RQLCostEstimator {
+
+  long estimate(ASTNode node, RQLFieldResolver rqlFieldResolver);
+
+}
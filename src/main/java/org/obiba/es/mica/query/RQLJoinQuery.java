@@ -11,7 +11,6 @@
 package org.obiba.es.mica.query;
 
 import net.jazdw.rql.parser.ASTNode;
-import net.jazdw.rql.parser.RQLParser;
 import org.elasticsearch.common.Strings;
 import org.obiba.mica.spi.search.ConfigurationProvider;
 import org.obiba.mica.spi.search.IndexFieldMapping;
@@ -36,6 +35,8 @@ public class RQLJoinQuery implements JoinQuery {
 
   private final Indexer indexer;
 
+  private final RQLQueryGuard guard;
+
   private ASTNode node;
 
   private boolean withFacets;
@@ -53,8 +54,13 @@ public class RQLJoinQuery implements JoinQuery {
   private List<RQLNode> nodeTypes = new ArrayList<>();
 
   public RQLJoinQuery(ConfigurationProvider configurationProvider, Indexer indexer) {
+    this(configurationProvider, indexer, RQLQueryGuard.UNLIMITED);
+  }
+
+  public RQLJoinQuery(ConfigurationProvider configurationProvider, Indexer indexer, RQLQueryGuard guard) {
     this.configurationProvider = configurationProvider;
     this.indexer = indexer;
+    this.guard = guard;
   }
 
   @Override
@@ -67,8 +73,7 @@ public class RQLJoinQuery implements JoinQuery {
 
   public void initialize(String rql) {
     String rqlStr = rql == null ? "" : rql;
-    RQLParser parser = new RQLParser(new RQLConverter());
-    node = parser.parse(rqlStr);
+    node = RQLStreamingParser.parse(rqlStr);
     initializeLocale(node);
 
     if (Strings.isNullOrEmpty(node.getName())) {
@@ -139,20 +144,24 @@ public class RQLJoinQuery implements JoinQuery {
     nodeTypes.add(rqlNode);
     switch (rqlNode) {
       case VARIABLE:
-        variableQuery = new RQLQuery(node, new RQLFieldResolver(rqlNode, getVariableTaxonomies(), locale,
-            getVariableIndexMapping()));
+        IndexFieldMapping variableMapping = getVariableIndexMapping();
+        variableQuery = new RQLQuery(node,
+            new RQLFieldResolver(rqlNode, getVariableTaxonomies(), locale, variableMapping), variableMapping, guard);
         break;
       case DATASET:
-        datasetQuery = new RQLQuery(node, new RQLFieldResolver(rqlNode, getDatasetTaxonomies(), locale,
-            getDatasetIndexMapping()));
+        IndexFieldMapping datasetMapping = getDatasetIndexMapping();
+        datasetQuery = new RQLQuery(node,
+            new RQLFieldResolver(rqlNode, getDatasetTaxonomies(), locale, datasetMapping), datasetMapping, guard);
         break;
       case STUDY:
-        studyQuery = new RQLQuery(node, new RQLFieldResolver(rqlNode, getStudyTaxonomies(), locale,
-            getStudyIndexMapping()));
+        IndexFieldMapping studyMapping = getStudyIndexMapping();
+        studyQuery = new RQLQuery(node,
+            new RQLFieldResolver(rqlNode, getStudyTaxonomies(), locale, studyMapping), studyMapping, guard);
         break;
       case NETWORK:
-        networkQuery = new RQLQuery(node, new RQLFieldResolver(rqlNode, getNetworkTaxonomies(), locale,
-            getNetworkIndexMapping()));
+        IndexFieldMapping networkMapping = getNetworkIndexMapping();
+        networkQuery = new RQLQuery(node,
+            new RQLFieldResolver(rqlNode, getNetworkTaxonomies(), locale, networkMapping), networkMapping, guard);
         break;
       case LOCALE:
         if (node.getArgumentsSize() > 0)
@@ -13,27 +13,27 @@ package org.obiba.es.mica.query;
 import co.elastic.clients.elasticsearch._types.query_dsl.TermRangeQuery;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import net.jazdw.rql.parser.ASTNode;
-import net.jazdw.rql.parser.RQLParser;
 import net.jazdw.rql.parser.SimpleASTVisitor;
-import org.elasticsearch.search.sort.FieldSortBuilder;
-import org.elasticsearch.search.sort.SortBuilder;
-import org.elasticsearch.search.sort.SortBuilders;
-import org.elasticsearch.search.sort.SortOrder;
+import org.obiba.es.mica.ESIndexFieldMapping;
 import org.obiba.es.mica.ESQuery;
+import org.obiba.mica.spi.search.IndexFieldMapping;
 import org.obiba.mica.spi.search.rql.RQLFieldResolver;
 import org.obiba.mica.spi.search.rql.RQLNode;
 import org.obiba.mica.spi.search.support.AttributeKey;
-import org.obiba.opal.core.domain.taxonomy.Taxonomy;
-import org.obiba.opal.core.domain.taxonomy.TaxonomyEntity;
-import org.obiba.opal.core.domain.taxonomy.Vocabulary;
 
 import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.mapping.FieldType;
 import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.ExistsQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.MatchAllQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.PrefixQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.Query;
 import co.elastic.clients.elasticsearch._types.query_dsl.QueryStringQuery;
 import co.elastic.clients.elasticsearch._types.query_dsl.RangeQuery;
@@ -51,6 +51,12 @@ public class RQLQuery implements ESQuery {
 
   private final RQLFieldResolver rqlFieldResolver;
 
+  @Nullable
+  private final IndexFieldMapping indexFieldMapping;
+
+  // expensive patterns are stripped when the query is over the cost budget
+  private boolean downgraded = false;
+
   private int from = 0;
 
   private int size = 0;
@@ -61,7 +67,7 @@ public class RQLQuery implements ESQuery {
 
   private Query queryBuilder;
 
-  private List<SortBuilder> sortBuilders = Lists.newArrayList();
+  private List<SortOptions> sortBuilders = Lists.newArrayList();
 
   private List<String> aggregations = Lists.newArrayList();
 
@@ -69,19 +75,34 @@ public class RQLQuery implements ESQuery {
 
   private List<String> queryAggregationBuckets = Lists.newArrayList();
 
-  private List<String> sourceFields = Lists.newArrayList();
+  private List<String> sourceFields = ImmutableList.of();
 
   private final Map<String, Map<String, List<String>>> taxonomyTermsMap = Maps.newHashMap();
 
   private Query filterQuery;
 
   public RQLQuery(String rql) {
-    this(new RQLParser(new RQLConverter()).parse(rql), new RQLFieldResolver(null, Collections.emptyList(), "en",
-        null));
+    this(rql, RQLQueryGuard.UNLIMITED);
+  }
+
+  public RQLQuery(String rql, RQLQueryGuard guard) {
+    this(RQLStreamingParser.parse(rql), new RQLFieldResolver(null, Collections.emptyList(), "en",
+        null), guard);
   }
 
   public RQLQuery(ASTNode node, RQLFieldResolver rqlFieldResolver) {
+    this(node, rqlFieldResolver, RQLQueryGuard.UNLIMITED);
+  }
+
+  public RQLQuery(ASTNode node, RQLFieldResolver rqlFieldResolver, RQLQueryGuard guard) {
+    this(node, rqlFieldResolver, null, guard);
+  }
+
+  public RQLQuery(ASTNode node, RQLFieldResolver rqlFieldResolver, @Nullable IndexFieldMapping indexFieldMapping,
+      RQLQueryGuard guard) {
     this.rqlFieldResolver = rqlFieldResolver;
+    this.indexFieldMapping = indexFieldMapping;
+    downgraded = guard.check(node, rqlFieldResolver);
     parseNode(node);
   }
 
@@ -162,7 +183,7 @@ public class RQLQuery implements ESQuery {
   }
 
   @Override
-  public List<SortBuilder> getSortBuilders() {
+  public List<SortOptions> getSortBuilders() {
     return sortBuilders;
   }
 
@@ -215,6 +236,7 @@ public class RQLQuery implements ESQuery {
         default:
           parseQuery(node);
       }
+      queryBuilder = BoolQueryOptimizer.optimize(queryBuilder);
     } catch (IllegalArgumentException e) {
 
     }
@@ -222,12 +244,12 @@ public class RQLQuery implements ESQuery {
 
   private void parseQuery(ASTNode node) {
     this.node = node;
-    RQLQueryBuilder builder = new RQLQueryBuilder(rqlFieldResolver);
+    RQLQueryBuilder builder = new RQLQueryBuilder(rqlFieldResolver, downgraded);
     queryBuilder = node.accept(builder);
   }
 
   private void parseFilterQuery(ASTNode node) {
-    RQLQueryBuilder builder = new RQLQueryBuilder(rqlFieldResolver);
+    RQLQueryBuilder builder = new RQLQueryBuilder(rqlFieldResolver, downgraded);
     filterQuery = node.accept(builder);
   }
 
@@ -258,23 +280,22 @@ public class RQLQuery implements ESQuery {
   }
 
   private void parseFields(ASTNode node) {
-    sourceFields = Lists.newArrayList();
-
+    // immutable and without duplicates, the query can be executed several times
+    ImmutableSet.Builder<String> fields = ImmutableSet.builder();
     if (node.getArgumentsSize() > 0) {
-      if (node.getArgument(0) instanceof ArrayList) {
-        ArrayList<Object> fields = (ArrayList<Object>) node.getArgument(0);
-        fields.stream().map(Object::toString).forEach(sourceFields::add);
-      } else {
-        node.getArguments().stream().map(Object::toString).forEach(sourceFields::add);
-      }
+      List<Object> arguments = node.getArgument(0) instanceof List
+          ? (List<Object>) node.getArgument(0)
+          : node.getArguments();
+      arguments.forEach(field -> fields.add(field.toString()));
     }
+    sourceFields = fields.build().asList();
   }
 
   private void addFilterQueryIfPresent() {
     if (filterQuery != null) {
       queryBuilder = queryBuilder == null
           ? filterQuery
-          : BoolQuery.of(q -> q.must(filterQuery, queryBuilder))._toQuery();
+          : BoolQuery.of(q -> q.must(queryBuilder).filter(filterQuery))._toQuery();
       filterQuery = null;
     }
   }
@@ -287,6 +308,8 @@ public class RQLQuery implements ESQuery {
 
     protected final RQLFieldResolver rqlFieldResolver;
 
+    private TaxonomyIndex taxonomyIndex;
+
     RQLBuilder(RQLFieldResolver rqlFieldResolver) {
       this.rqlFieldResolver = rqlFieldResolver;
     }
@@ -299,24 +322,21 @@ public class RQLQuery implements ESQuery {
       return rqlFieldResolver.resolveFieldUnanalyzed(rqlField);
     }
 
-    protected Vocabulary getVocabulary(String taxonomyName, String vocabularyName) {
-      Optional<Taxonomy> taxonomy = rqlFieldResolver.getTaxonomies().stream()
-          .filter(t -> t.getName().equals(taxonomyName)).findFirst();
-      if (taxonomy.isPresent() && taxonomy.get().hasVocabularies()) {
-        Optional<Vocabulary> vocabulary = taxonomy.get().getVocabularies().stream()
-            .filter(v -> v.getName().equals(vocabularyName)).findFirst();
-        if (vocabulary.isPresent()) {
-          return vocabulary.get();
-        }
-      }
-      return null;
+    protected TaxonomyIndex getTaxonomyIndex() {
+      if (taxonomyIndex == null)
+        taxonomyIndex = TaxonomyIndex.of(rqlFieldResolver.getTaxonomies());
+      return taxonomyIndex;
     }
 
   }
 
   private class RQLQueryBuilder extends RQLBuilder<Query> {
-    RQLQueryBuilder(RQLFieldResolver rqlFieldResolver) {
+
+    private final boolean downgraded;
+
+    RQLQueryBuilder(RQLFieldResolver rqlFieldResolver, boolean downgraded) {
       super(rqlFieldResolver);
+      this.downgraded = downgraded;
     }
 
     @Override
@@ -422,20 +442,9 @@ public class RQLQuery implements ESQuery {
         return visitInRangeInternal(data, node.getArgument(1));
       }
 
-      Object terms = node.getArgument(1);
-      visitField(field, terms instanceof Collection ? ((Collection<Object>) terms).stream().map(Object::toString)
-          .collect(Collectors.toList()) : Collections.singleton(terms.toString()));
-      if (terms instanceof Collection) {
-        Collection termList = (Collection<?>) terms;
-
-        List<FieldValue> fieldValues = new ArrayList<>();
-        ((Collection<?>) terms).forEach(t -> fieldValues.add(FieldValue.of(t.toString())));
-
-        return TermsQuery.of(q -> q.field(field).terms(TermsQueryField.of(tqf -> tqf.value(fieldValues))))._toQuery();
-      }
-
-      List<FieldValue> fieldValues = new ArrayList<>();
-      fieldValues.add(FieldValue.of(terms.toString()));
+      TermValueList terms = TermValueList.of(node.getArgument(1));
+      visitField(field, terms);
+      List<FieldValue> fieldValues = terms.asFieldValues();
       return TermsQuery.of(q -> q.field(field).terms(TermsQueryField.of(tqf -> tqf.value(fieldValues))))._toQuery();
     }
 
@@ -476,20 +485,7 @@ public class RQLQuery implements ESQuery {
 
     private Query visitOut(ASTNode node) {
       String field = resolveField(node.getArgument(0).toString()).getField();
-      Object terms = node.getArgument(1);
-      if (terms instanceof Collection) {
-        List<FieldValue> fieldValues = new ArrayList<>();
-        ((Collection<?>) terms).forEach(t -> fieldValues.add(FieldValue.of(t.toString())));
-
-        return BoolQuery
-            .of(q -> q.mustNot(TermsQuery
-                .of(tq -> tq.field(field).terms(TermsQueryField.of(tqf -> tqf.value(fieldValues))))._toQuery()))
-            ._toQuery();
-      }
-
-      List<FieldValue> fieldValues = new ArrayList<>();
-      fieldValues.add(FieldValue.of(terms.toString()));
-
+      List<FieldValue> fieldValues = TermValueList.of(node.getArgument(1)).asFieldValues();
       return BoolQuery
           .of(q -> q.mustNot(
               TermsQuery.of(tq -> tq.field(field).terms(TermsQueryField.of(tqf -> tqf.value(fieldValues))))._toQuery()))
@@ -552,7 +548,7 @@ public class RQLQuery implements ESQuery {
     private Query visitBetween(ASTNode node) {
       String field = resolveField(node.getArgument(0).toString()).getField();
       visitField(field);
-      ArrayList<Object> values = (ArrayList<Object>) node.getArgument(1);
+      List<Object> values = (List<Object>) node.getArgument(1);
 
       return Query.of(q -> q
         .range(r -> r.term(TermRangeQuery.of(t -> t.field(field).gte(values.get(0).toString()).lte(values.get(1).toString()))))
@@ -562,12 +558,14 @@ public class RQLQuery implements ESQuery {
     private Query visitMatch(ASTNode node) {
       if (node.getArgumentsSize() == 0)
         return new MatchAllQuery.Builder().build()._toQuery();
-      String stringQuery = toStringQuery(node.getArgument(0), " OR ");
+      String stringQuery = downgrade(toStringQuery(node.getArgument(0), " OR "));
       // if there is only one argument, the fields to be matched are the default ones
       // otherwise, the following argument can be the field name or a list of field
       // names
 
       QueryStringQuery.Builder builder = new QueryStringQuery.Builder().query(stringQuery);
+      if (downgraded)
+        builder.allowLeadingWildcard(false);
 
       if (node.getArgumentsSize() > 1) {
         if (node.getArgument(1) instanceof List) {
@@ -603,7 +601,23 @@ public class RQLQuery implements ESQuery {
       Object value = node.getArgument(1);
       visitField(field);
 
-      return WildcardQuery.of(q -> q.field(field).value(value.toString()))._toQuery();
+      String pattern = downgraded ? value.toString().replaceAll("^[*?]+", "") : value.toString();
+      if (pattern.isEmpty())
+        return ExistsQuery.of(q -> q.field(field))._toQuery();
+
+      // analyzed fields normalize the wildcard pattern, the keyword fields do not
+      if (isAnalyzedField(field))
+        return WildcardQuery.of(q -> q.field(field).value(pattern))._toQuery();
+
+      // trailing wildcard only: seek in the term dictionary instead of scanning it
+      if (pattern.endsWith("*") && !pattern.contains("\\") && pattern.indexOf('*') == pattern.length() - 1
+          && !pattern.contains("?")) {
+        String prefix = pattern.substring(0, pattern.length() - 1);
+        return PrefixQuery.of(q -> q.field(field).value(prefix))._toQuery();
+      }
+
+      String wildcardField = hasWildcardSubfield(field) ? field + "." + ESIndexFieldMapping.WILDCARD_SUBFIELD : field;
+      return WildcardQuery.of(q -> q.field(wildcardField).value(pattern))._toQuery();
     }
 
     private Query visitExists(ASTNode node) {
@@ -621,8 +635,10 @@ public class RQLQuery implements ESQuery {
     }
 
     private Query visitQuery(ASTNode node) {
-      String query = node.getArgument(0).toString().replaceAll("\\+", " ");
-      return QueryStringQuery.of(q -> q.query(query))._toQuery();
+      String query = downgrade(node.getArgument(0).toString().replaceAll("\\+", " "));
+      return downgraded
+          ? QueryStringQuery.of(q -> q.query(query).allowLeadingWildcard(false))._toQuery()
+          : QueryStringQuery.of(q -> q.query(query))._toQuery();
     }
 
     private void visitField(String field) {
@@ -644,16 +660,9 @@ public class RQLQuery implements ESQuery {
         vocMap.put(key.getName(), Lists.newArrayList());
       }
 
-      if (terms != null) {
-        vocMap.get(key.getName()).addAll(terms);
-      } else {
-        // add all terms from taxonomy vocabulary
-        Vocabulary vocabulary = getVocabulary(key.getNamespace(), key.getName());
-        if (vocabulary != null && vocabulary.hasTerms()) {
-          vocMap.get(key.getName())
-              .addAll(vocabulary.getTerms().stream().map(TaxonomyEntity::getName).collect(Collectors.toList()));
-        }
-      }
+      // add all terms from taxonomy vocabulary when none is specified
+      vocMap.get(key.getName()).addAll(terms != null ? terms
+          : getTaxonomyIndex().getTermNames(key.getNamespace(), key.getName()));
     }
 
     private String toStringQuery(Object argument, String joiner) {
@@ -688,6 +697,26 @@ public class RQLQuery implements ESQuery {
       return stringQuery;
     }
 
+    /**
+     * Strip the leading wildcards and the regular expression delimiters of the query string terms, if downgraded.
+     */
+    private String downgrade(String stringQuery) {
+      if (!downgraded)
+        return stringQuery;
+      return Arrays.stream(stringQuery.split(" "))
+          .map(token -> token.replaceAll("^([^:]+:)?([(\"+-]*)[*?]+", "$1$2").replaceAll("^([^:]+:)?/(.+)/$", "$1$2"))
+          .collect(Collectors.joining(" "));
+    }
+
+    private boolean isAnalyzedField(String field) {
+      return field.endsWith(".analyzed");
+    }
+
+    private boolean hasWildcardSubfield(String field) {
+      return indexFieldMapping instanceof ESIndexFieldMapping
+          && ((ESIndexFieldMapping) indexFieldMapping).hasSubfield(field, ESIndexFieldMapping.WILDCARD_SUBFIELD);
+    }
+
     private boolean isAttributeField(String field) {
       return field.startsWith("attributes.") && field.endsWith(".und");
     }
@@ -725,27 +754,22 @@ public class RQLQuery implements ESQuery {
     }
   }
 
-  private class RQLSortBuilder extends RQLBuilder<List<SortBuilder>> {
+  private class RQLSortBuilder extends RQLBuilder<List<SortOptions>> {
     RQLSortBuilder(RQLFieldResolver rqlFieldResolver) {
       super(rqlFieldResolver);
     }
 
     @Override
-    public List<SortBuilder> visit(ASTNode node) {
+    public List<SortOptions> visit(ASTNode node) {
       try {
         RQLNode type = RQLNode.getType(node.getName());
         switch (type) {
           case SORT:
-            List<SortBuilder> sortBuilders = Lists.newArrayList();
+            List<SortOptions> sortBuilders = Lists.newArrayList();
             if (node.getArgumentsSize() >= 1) {
               for (int i = 0; i < node.getArgumentsSize(); i++) {
                 String sortKey = node.getArgument(i).toString();
-                SortBuilder sortBuilder = processArgument(sortKey);
-                if (!"_score".equals(((FieldSortBuilder) sortBuilder).getFieldName())) {
-                  ((FieldSortBuilder) sortBuilder).unmappedType("string");
-                  ((FieldSortBuilder) sortBuilder).missing("_last");
-                }
-                sortBuilders.add(sortBuilder);
+                sortBuilders.add(processArgument(sortKey));
               }
             }
             return sortBuilders;
@@ -756,13 +780,26 @@ public class RQLQuery implements ESQuery {
       return null;
     }
 
-    private SortBuilder processArgument(String arg) {
+    private SortOptions processArgument(String arg) {
       if (arg.startsWith("-"))
-        return SortBuilders.fieldSort(resolveFieldUnanalyzed(arg.substring(1)).getField()).order(SortOrder.DESC);
+        return fieldSort(resolveFieldUnanalyzed(arg.substring(1)).getField(), SortOrder.Desc);
       else if (arg.startsWith("+"))
-        return SortBuilders.fieldSort(resolveFieldUnanalyzed(arg.substring(1)).getField()).order(SortOrder.ASC);
+        return fieldSort(resolveFieldUnanalyzed(arg.substring(1)).getField(), SortOrder.Asc);
       else
-        return SortBuilders.fieldSort(resolveFieldUnanalyzed(arg).getField()).order(SortOrder.ASC);
+        return fieldSort(resolveFieldUnanalyzed(arg).getField(), SortOrder.Asc);
+    }
+
+    /**
+     * Documents not having the sort field (or indices not mapping it) are sorted last.
+     */
+    private SortOptions fieldSort(String field, SortOrder order) {
+      return SortOptions.of(s -> s.field(f -> {
+        f.field(field).order(order);
+        if (!"_score".equals(field)) {
+          f.unmappedType(FieldType.Keyword).missing(FieldValue.of("_last"));
+        }
+        return f;
+      }));
     }
 
   }
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+/**
+ * Raised when the estimated cost of a RQL query exceeds the configured budget.
+ */
+public class RQLQueryCostException extends RuntimeException {
+
+  private final long cost;
+
+  private final long budget;
+
+  public RQLQueryCostException(long cost, long budget) {
+    super(String.format("Query is too expensive: estimated cost %d exceeds budget %d", cost, budget));
+    this.cost = cost;
+    this.budget = budget;
+  }
+
+  public long getCost() {
+    return cost;
+  }
+
+  public long getBudget() {
+    return budget;
+  }
+}
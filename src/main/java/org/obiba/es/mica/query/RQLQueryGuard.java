@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import com.google.common.base.Ascii;
+import net.jazdw.rql.parser.ASTNode;
+import org.obiba.mica.spi.search.rql.RQLFieldResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the estimated cost of a RQL query against a budget before it is turned into an Elasticsearch query. Over
+ * budget, the query is either only logged, rejected or downgraded: leading wildcards and regular expressions are
+ * stripped from patterns so that they do not scan the term dictionaries.
+ */
+public class RQLQueryGuard {
+
+  private static final Logger log = LoggerFactory.getLogger(RQLQueryGuard.class);
+
+  // length of the query logged when it is over budget, a query can hold long lists of values
+  private static final int LOGGED_QUERY_LENGTH = 500;
+
+  public enum Action {
+    LOG, REJECT, DOWNGRADE
+  }
+
+  public static final RQLQueryGuard UNLIMITED = new RQLQueryGuard(new DefaultRQLCostEstimator(), 0, Action.LOG);
+
+  private final RQLCostEstimator estimator;
+
+  private final long budget;
+
+  private final Action action;
+
+  /**
+   * @param budget maximum estimated cost, not greater than zero for no limit
+   */
+  public RQLQueryGuard(RQLCostEstimator estimator, long budget, Action action) {
+    this.estimator = estimator;
+    this.budget = budget;
+    this.action = action;
+  }
+
+  /**
+   * Verify the cost of the query node.
+   *
+   * @return true if the query is to be downgraded
+   * @throws RQLQueryCostException if the query is over budget and is to be rejected
+   */
+  boolean check(ASTNode node, RQLFieldResolver rqlFieldResolver) {
+    if (budget <= 0)
+      return false;
+
+    long cost = estimator.estimate(node, rqlFieldResolver);
+    if (cost <= budget)
+      return false;
+
+    if (action == Action.REJECT)
+      throw new RQLQueryCostException(cost, budget);
+
+    if (action == Action.LOG) {
+      log.warn("Query cost {} exceeds budget {}: {}", cost, budget, abbreviate(node));
+      return false;
+    }
+
+    log.warn("Query cost {} exceeds budget {}, downgrading: {}", cost, budget, abbreviate(node));
+    return true;
+  }
+
+  //
+  // Private methods
+  //
+
+  private static String abbreviate(ASTNode node) {
+    return Ascii.truncate(node.toString(), LOGGED_QUERY_LENGTH, "...");
+  }
+}
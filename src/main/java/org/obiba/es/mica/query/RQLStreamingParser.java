@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import net.jazdw.rql.converter.ConverterException;
+import net.jazdw.rql.parser.ASTNode;
+import net.jazdw.rql.parser.RQLParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One pass parser of the RQL call syntax used by Mica (<code>name(arg,...)</code>, nested calls and
+ * <code>(value,...)</code> arrays). Arrays of plain values, such as the id lists of a cart, are collected directly in a
+ * {@link RQLValueList} instead of growing intermediate lists.
+ * <p>
+ * The operator syntax (<code>&amp;</code>, <code>|</code>, <code>=</code>) and URL encoded values are not supported:
+ * {@link #parse(String)} then falls back to the generic {@link RQLParser}.
+ */
+final class RQLStreamingParser {
+
+  private static final Logger log = LoggerFactory.getLogger(RQLStreamingParser.class);
+
+  /**
+   * Below this length the generic parser is fast enough.
+   */
+  static final int STREAMING_THRESHOLD = 4096;
+
+  private static final RQLConverter.AutoValueConverter AUTO_VALUE_CONVERTER = new RQLConverter.AutoValueConverter();
+
+  private final CharSequence input;
+
+  private final int length;
+
+  private int pos = 0;
+
+  RQLStreamingParser(CharSequence input) {
+    this.input = input;
+    this.length = input.length();
+  }
+
+  /**
+   * Parse the RQL string with the streaming parser when it is large, with the generic parser otherwise or when the
+   * syntax is not supported by the streaming parser.
+   */
+  static ASTNode parse(String rql) {
+    if (rql.length() >= STREAMING_THRESHOLD) {
+      try {
+        return new RQLStreamingParser(rql).parse();
+      } catch (IllegalArgumentException e) {
+        log.debug("Streaming RQL parser not applicable, using the generic parser: {}", e.getMessage());
+      }
+    }
+    return new RQLParser(RQLConverter.INSTANCE).parse(rql);
+  }
+
+  /**
+   * Parse the whole input: a single top-level call is returned as is, several comma separated calls are the arguments
+   * of a node without name.
+   *
+   * @throws IllegalArgumentException if the input is not supported or is malformed
+   */
+  ASTNode parse() {
+    List<Object> nodes = new ArrayList<>();
+    if (length > 0) {
+      do {
+        nodes.add(parseCall(readToken()));
+      } while (consume(','));
+    }
+    if (pos < length)
+      throw error("unexpected character '" + input.charAt(pos) + "'");
+    return nodes.size() == 1 ? (ASTNode) nodes.get(0) : new ASTNode("", nodes.toArray());
+  }
+
+  //
+  // Private methods
+  //
+
+  private ASTNode parseCall(String name) {
+    if (name.isEmpty() || !consume('('))
+      throw error("call expected");
+    List<Object> arguments = new ArrayList<>();
+    if (!consume(')')) {
+      do {
+        arguments.add(parseArgument());
+      } while (consume(','));
+      expect(')');
+    }
+    return new ASTNode(name, arguments.toArray());
+  }
+
+  private Object parseArgument() {
+    if (consume('('))
+      return parseArray();
+    String token = readToken();
+    if (pos < length && input.charAt(pos) == '(')
+      return parseCall(token);
+    return convert(token);
+  }
+
+  private List<Object> parseArray() {
+    if (consume(')'))
+      return new RQLValueList(new Object[0]);
+
+    Object[] values = new Object[16];
+    int size = 0;
+    boolean plain = true;
+    do {
+      Object value = parseArgument();
+      plain = plain && !(value instanceof ASTNode) && !(value instanceof List);
+      if (size == values.length)
+        values = Arrays.copyOf(values, size + (size >> 1));
+      values[size++] = value;
+    } while (consume(','));
+    expect(')');
+
+    // nested calls or arrays keep a mutable list, as the generic parser does
+    return plain
+        ? new RQLValueList(Arrays.copyOf(values, size))
+        : new ArrayList<>(Arrays.asList(values).subList(0, size));
+  }
+
+  private String readToken() {
+    int start = pos;
+    while (pos < length) {
+      char c = input.charAt(pos);
+      if (c == '(' || c == ')' || c == ',')
+        break;
+      if (c == '&' || c == '|' || c == '=' || c == '%')
+        throw error("unsupported character '" + c + "'");
+      pos++;
+    }
+    return input.subSequence(start, pos).toString();
+  }
+
+  private Object convert(String token) {
+    try {
+      // typed values (string:..., number:... etc.)
+      if (token.indexOf(':') >= 0)
+        return RQLConverter.INSTANCE.convert(token);
+      return AUTO_VALUE_CONVERTER.convert(token);
+    } catch (ConverterException e) {
+      throw new IllegalArgumentException("Invalid RQL value: " + token, e);
+    }
+  }
+
+  private boolean consume(char c) {
+    if (pos < length && input.charAt(pos) == c) {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) {
+    if (!consume(c))
+      throw error("'" + c + "' expected");
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException("Invalid RQL at position " + pos + ": " + message);
+  }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only array of the plain values of a RQL array argument, as parsed by the {@link RQLStreamingParser}.
+ */
+final class RQLValueList extends AbstractList<Object> implements RandomAccess {
+
+  private final Object[] values;
+
+  RQLValueList(Object[] values) {
+    this.values = values;
+  }
+
+  @Override
+  public Object get(int index) {
+    return values[index];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+}
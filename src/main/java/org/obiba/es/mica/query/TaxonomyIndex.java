@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import org.obiba.es.mica.support.TaxonomyFingerprint;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.TaxonomyEntity;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Immutable (taxonomy, vocabulary) lookup of the term names. An index is built once per content of the list of
+ * taxonomies and shared by all the queries: it is identified by the fingerprints of the taxonomies and only holds
+ * names, not the taxonomy instances. A taxonomy instance is fingerprinted once, when it is first seen: the taxonomies
+ * of the configuration provider are replaced, not modified in place, when they change.
+ */
+final class TaxonomyIndex {
+
+  private static final HashCode EMPTY = TaxonomyFingerprint.of(Collections.emptyList());
+
+  private static final HashCode NULL_TAXONOMY = TaxonomyFingerprint.of((Taxonomy) null);
+
+  private static final Cache<HashCode, TaxonomyIndex> indices = CacheBuilder.newBuilder()
+      .maximumSize(32)
+      .build();
+
+  // identity of the taxonomy instances, that are weakly referenced
+  private static final Cache<Taxonomy, HashCode> fingerprints = CacheBuilder.newBuilder()
+      .weakKeys()
+      .build();
+
+  private final Map<String, Map<String, List<String>>> termNames;
+
+  private TaxonomyIndex(List<Taxonomy> taxonomies) {
+    // first occurrence wins, as with the former linear lookup
+    Map<String, Map<String, List<String>>> termNamesByTaxonomy = Maps.newLinkedHashMap();
+    for (Taxonomy taxonomy : taxonomies) {
+      if (taxonomy == null || taxonomy.getName() == null || termNamesByTaxonomy.containsKey(taxonomy.getName()))
+        continue;
+      Map<String, List<String>> taxonomyTermNames = Maps.newLinkedHashMap();
+      if (taxonomy.hasVocabularies()) {
+        for (Vocabulary vocabulary : taxonomy.getVocabularies()) {
+          if (vocabulary.getName() == null || taxonomyTermNames.containsKey(vocabulary.getName()))
+            continue;
+          taxonomyTermNames.put(vocabulary.getName(), vocabulary.hasTerms()
+              ? ImmutableList.copyOf(vocabulary.getTerms().stream().map(TaxonomyEntity::getName).iterator())
+              : ImmutableList.of());
+        }
+      }
+      termNamesByTaxonomy.put(taxonomy.getName(), ImmutableMap.copyOf(taxonomyTermNames));
+    }
+    termNames = ImmutableMap.copyOf(termNamesByTaxonomy);
+  }
+
+  static TaxonomyIndex of(List<Taxonomy> taxonomies) {
+    try {
+      return indices.get(fingerprint(taxonomies), () -> new TaxonomyIndex(taxonomies));
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Names of the terms of the vocabulary, empty if the vocabulary is unknown or has no terms.
+   */
+  List<String> getTermNames(String taxonomyName, String vocabularyName) {
+    return termNames.getOrDefault(taxonomyName, Collections.emptyMap())
+        .getOrDefault(vocabularyName, Collections.emptyList());
+  }
+
+  //
+  // Private methods
+  //
+
+  private static HashCode fingerprint(List<Taxonomy> taxonomies) throws ExecutionException {
+    if (taxonomies.isEmpty())
+      return EMPTY;
+    List<HashCode> taxonomyFingerprints = Lists.newArrayListWithCapacity(taxonomies.size());
+    for (Taxonomy taxonomy : taxonomies) {
+      taxonomyFingerprints.add(taxonomy == null
+          ? NULL_TAXONOMY
+          : fingerprints.get(taxonomy, () -> TaxonomyFingerprint.of(taxonomy)));
+    }
+    return Hashing.combineOrdered(taxonomyFingerprints);
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import com.google.common.collect.Sets;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * Deduplicated string values of an in()/out() argument, in their order of appearance, backed by a single array. The
+ * same array is used for the taxonomy terms of the query and for the values of the terms query: the
+ * {@link FieldValue}s are created on the fly when the request is serialized.
+ */
+final class TermValueList extends AbstractList<String> implements RandomAccess {
+
+  private final String[] values;
+
+  private TermValueList(String[] values) {
+    this.values = values;
+  }
+
+  /**
+   * String values of a RQL argument, being a single value or a collection of values.
+   */
+  static TermValueList of(Object terms) {
+    String[] values;
+    if (terms instanceof Collection) {
+      Collection<?> termList = (Collection<?>) terms;
+      values = new String[termList.size()];
+      int i = 0;
+      for (Object term : termList)
+        values[i++] = String.valueOf(term);
+    } else {
+      values = new String[] { String.valueOf(terms) };
+    }
+
+    if (values.length < 2)
+      return new TermValueList(values);
+
+    // first occurrence wins, the order of the values is kept
+    Set<String> seen = Sets.newHashSetWithExpectedSize(values.length);
+    int size = 0;
+    for (String value : values) {
+      if (seen.add(value))
+        values[size++] = value;
+    }
+    return new TermValueList(size == values.length ? values : Arrays.copyOf(values, size));
+  }
+
+  @Override
+  public String get(int index) {
+    return values[index];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * Read-only view of the values for a terms query.
+   */
+  List<FieldValue> asFieldValues() {
+    return new FieldValues();
+  }
+
+  private final class FieldValues extends AbstractList<FieldValue> implements RandomAccess {
+
+    @Override
+    public FieldValue get(int index) {
+      return FieldValue.of(values[index]);
+    }
+
+    @Override
+    public int size() {
+      return values.length;
+    }
+  }
+}
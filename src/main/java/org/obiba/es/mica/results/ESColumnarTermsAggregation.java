@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.results;
+
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.DoubleTermsBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.LongTermsBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Interner;
+import org.obiba.mica.spi.search.Searcher;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * Terms aggregation read once into columns: the bucket keys in a string array, the counts in a long array and the
+ * sub-aggregations, if any, in an array of maps. The buckets are views on a column index, created when accessed. The
+ * keys can be interned, facets of consecutive responses then share the same key strings.
+ */
+public class ESColumnarTermsAggregation implements Searcher.DocumentTermsAggregation {
+
+  private final String[] keys;
+
+  private final long[] docCounts;
+
+  @Nullable
+  private final Map<String, Aggregate>[] subAggregations;
+
+  private final Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader;
+
+  private final List<Searcher.DocumentTermsBucket> buckets;
+
+  public ESColumnarTermsAggregation(Aggregate terms, @Nullable Interner<String> keyInterner) {
+    termsReader = aggregate -> new ESColumnarTermsAggregation(aggregate, keyInterner);
+    int size;
+    if (terms.isSterms()) {
+      List<StringTermsBucket> termsBuckets = terms.sterms().buckets().array();
+      size = termsBuckets.size();
+      keys = new String[size];
+      docCounts = new long[size];
+      subAggregations = newSubAggregations(termsBuckets.stream().anyMatch(b -> !b.aggregations().isEmpty()), size);
+      for (int i = 0; i < size; i++) {
+        StringTermsBucket bucket = termsBuckets.get(i);
+        set(i, bucket.key().stringValue(), bucket.docCount(), bucket.aggregations(), keyInterner);
+      }
+    } else if (terms.isLterms()) {
+      List<LongTermsBucket> termsBuckets = terms.lterms().buckets().array();
+      size = termsBuckets.size();
+      keys = new String[size];
+      docCounts = new long[size];
+      subAggregations = newSubAggregations(termsBuckets.stream().anyMatch(b -> !b.aggregations().isEmpty()), size);
+      for (int i = 0; i < size; i++) {
+        LongTermsBucket bucket = termsBuckets.get(i);
+        String key = bucket.keyAsString() != null ? bucket.keyAsString() : String.valueOf(bucket.key());
+        set(i, key, bucket.docCount(), bucket.aggregations(), keyInterner);
+      }
+    } else if (terms.isDterms()) {
+      List<DoubleTermsBucket> termsBuckets = terms.dterms().buckets().array();
+      size = termsBuckets.size();
+      keys = new String[size];
+      docCounts = new long[size];
+      subAggregations = newSubAggregations(termsBuckets.stream().anyMatch(b -> !b.aggregations().isEmpty()), size);
+      for (int i = 0; i < size; i++) {
+        DoubleTermsBucket bucket = termsBuckets.get(i);
+        String key = bucket.keyAsString() != null ? bucket.keyAsString() : String.valueOf(bucket.key());
+        set(i, key, bucket.docCount(), bucket.aggregations(), keyInterner);
+      }
+    } else {
+      size = 0;
+      keys = new String[0];
+      docCounts = new long[0];
+      subAggregations = null;
+    }
+    buckets = size == 0 ? ImmutableList.of() : new Buckets();
+  }
+
+  @Override
+  public List<Searcher.DocumentTermsBucket> getBuckets() {
+    return buckets;
+  }
+
+  //
+  // Private methods
+  //
+
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private static Map<String, Aggregate>[] newSubAggregations(boolean hasSubAggregations, int size) {
+    return hasSubAggregations ? new Map[size] : null;
+  }
+
+  private void set(int index, String key, long docCount, Map<String, Aggregate> aggregations,
+      @Nullable Interner<String> keyInterner) {
+    keys[index] = keyInterner == null ? key : keyInterner.intern(key);
+    docCounts[index] = docCount;
+    if (subAggregations != null)
+      subAggregations[index] = aggregations;
+  }
+
+  private final class Buckets extends AbstractList<Searcher.DocumentTermsBucket> implements RandomAccess {
+
+    @Override
+    public Searcher.DocumentTermsBucket get(int index) {
+      if (index < 0 || index >= keys.length)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + keys.length);
+      return new Bucket(index);
+    }
+
+    @Override
+    public int size() {
+      return keys.length;
+    }
+  }
+
+  private final class Bucket implements Searcher.DocumentTermsBucket {
+
+    private final int index;
+
+    private Bucket(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public long getDocCount() {
+      return docCounts[index];
+    }
+
+    @Override
+    public String getKeyAsString() {
+      return keys[index];
+    }
+
+    @Override
+    public List<Searcher.DocumentAggregation> getAggregations() {
+      if (subAggregations == null)
+        return ImmutableList.of();
+      return ESDocumentAggregation.listOf(subAggregations[index], termsReader);
+    }
+  }
+}
@@ -11,7 +11,13 @@
 package org.obiba.es.mica.results;
 
 import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import com.google.common.collect.ImmutableList;
 import org.obiba.mica.spi.search.Searcher;
+import org.obiba.mica.spi.search.support.AggregationHelper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 
 /**
  * {@link Aggregate} wrapper.
@@ -19,10 +25,42 @@ import org.obiba.mica.spi.search.Searcher;
 public class ESDocumentAggregation implements Searcher.DocumentAggregation {
   private final Aggregate aggregation;
   private final String name;
+  private final Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader;
+
+  // typed views, created on first access
+  private Searcher.DocumentStatsAggregation stats;
+  private Searcher.DocumentTermsAggregation terms;
+  private Searcher.DocumentRangeAggregation range;
+  private Searcher.DocumentGlobalAggregation global;
 
   public ESDocumentAggregation(String name, Aggregate aggregation) {
+    this(name, aggregation, ESDocumentTermsAggregation::new);
+  }
+
+  /**
+   * @param termsReader makes the terms view of the aggregation
+   */
+  public ESDocumentAggregation(String name, Aggregate aggregation,
+      Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader) {
     this.aggregation = aggregation;
     this.name = name;
+    this.termsReader = termsReader;
+  }
+
+  /**
+   * Read-only views of the aggregates, each one being wrapped when first accessed.
+   */
+  static List<Searcher.DocumentAggregation> listOf(Map<String, Aggregate> aggregates) {
+    return listOf(aggregates, ESDocumentTermsAggregation::new);
+  }
+
+  static List<Searcher.DocumentAggregation> listOf(Map<String, Aggregate> aggregates,
+      Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader) {
+    if (aggregates.isEmpty())
+      return ImmutableList.of();
+    return new LazyViewList<Map.Entry<String, Aggregate>, Searcher.DocumentAggregation>(
+        ImmutableList.copyOf(aggregates.entrySet()),
+        entry -> new ESDocumentAggregation(entry.getKey(), entry.getValue(), termsReader));
   }
 
   @Override
@@ -32,26 +70,37 @@ public class ESDocumentAggregation implements Searcher.DocumentAggregation {
 
   @Override
   public String getType() {
+    // numeric and boolean terms are read as the keyword ones
+    if (ESDocumentTermsAggregation.isTerms(aggregation))
+      return AggregationHelper.AGG_STERMS;
     return aggregation._kind().jsonValue();
   }
 
   @Override
   public Searcher.DocumentStatsAggregation asStats() {
-    return new ESDocumentStatsAggregation(aggregation);
+    if (stats == null)
+      stats = new ESDocumentStatsAggregation(aggregation);
+    return stats;
   }
 
   @Override
   public Searcher.DocumentTermsAggregation asTerms() {
-    return new ESDocumentTermsAggregation(aggregation);
+    if (terms == null)
+      terms = termsReader.apply(aggregation);
+    return terms;
   }
 
   @Override
   public Searcher.DocumentRangeAggregation asRange() {
-    return new ESDocumentRangeAggregation(aggregation);
+    if (range == null)
+      range = new ESDocumentRangeAggregation(aggregation);
+    return range;
   }
 
   @Override
   public Searcher.DocumentGlobalAggregation asGlobal() {
-    return new ESDocumentGlobalAggregation(aggregation);
+    if (global == null)
+      global = new ESDocumentGlobalAggregation(aggregation);
+    return global;
   }
 }
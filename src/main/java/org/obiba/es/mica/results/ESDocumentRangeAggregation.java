@@ -16,7 +16,6 @@ import co.elastic.clients.elasticsearch._types.aggregations.RangeAggregate;
 import org.obiba.mica.spi.search.Searcher;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * {@link RangeAggregate} aggregation wrapper.
@@ -24,12 +23,16 @@ import java.util.stream.Collectors;
 public class ESDocumentRangeAggregation implements Searcher.DocumentRangeAggregation {
   private final RangeAggregate range;
 
+  private List<Searcher.DocumentRangeBucket> buckets;
+
   public ESDocumentRangeAggregation(Aggregate range) {
     this.range = range.range();
   }
 
   @Override
   public List<Searcher.DocumentRangeBucket> getBuckets() {
-    return range.buckets().array().stream().map(ESDocumentRangeBucket::new).collect(Collectors.toList());
+    if (buckets == null)
+      buckets = new LazyViewList<>(range.buckets().array(), ESDocumentRangeBucket::new);
+    return buckets;
   }
 }
@@ -15,7 +15,6 @@ import org.obiba.mica.spi.search.Searcher;
 import co.elastic.clients.elasticsearch._types.aggregations.RangeBucket;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * {@link RangeBucket} aggregation wrapper.
@@ -23,6 +22,8 @@ import java.util.stream.Collectors;
 public class ESDocumentRangeBucket implements Searcher.DocumentRangeBucket {
   private final RangeBucket bucket;
 
+  private List<Searcher.DocumentAggregation> aggregations;
+
   public ESDocumentRangeBucket(RangeBucket bucket) {
     this.bucket = bucket;
   }
@@ -57,7 +58,8 @@ public class ESDocumentRangeBucket implements Searcher.DocumentRangeBucket {
 
   @Override
   public List<Searcher.DocumentAggregation> getAggregations() {
-    return bucket.aggregations().entrySet().stream()
-        .map(entry -> new ESDocumentAggregation(entry.getKey(), entry.getValue())).collect(Collectors.toList());
+    if (aggregations == null)
+      aggregations = ESDocumentAggregation.listOf(bucket.aggregations());
+    return aggregations;
   }
 }
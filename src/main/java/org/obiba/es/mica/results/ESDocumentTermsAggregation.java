@@ -11,27 +11,43 @@
 package org.obiba.es.mica.results;
 
 import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
-import co.elastic.clients.elasticsearch._types.aggregations.StringTermsAggregate;
-
-import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import com.google.common.collect.ImmutableList;
 import org.obiba.mica.spi.search.Searcher;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
- * {@link Terms} aggregation wrapper.
+ * Terms aggregation wrapper, whatever the type of the aggregated field: keyword (sterms), numeric or boolean (lterms
+ * and dterms). Other aggregates, such as the terms of an unmapped field, have no buckets.
  */
 public class ESDocumentTermsAggregation implements Searcher.DocumentTermsAggregation {
-  private final StringTermsAggregate terms;
+  private final Aggregate terms;
+
+  private List<Searcher.DocumentTermsBucket> buckets;
 
   public ESDocumentTermsAggregation(Aggregate terms) {
-    this.terms = terms.sterms();
+    this.terms = terms;
+  }
+
+  /**
+   * Whether the aggregate has terms buckets.
+   */
+  static boolean isTerms(Aggregate aggregate) {
+    return aggregate.isSterms() || aggregate.isLterms() || aggregate.isDterms();
   }
 
   @Override
   public List<Searcher.DocumentTermsBucket> getBuckets() {
-
-    return terms.buckets().array().stream().map(ESDocumentTermsBucket::new).collect(Collectors.toList());
+    if (buckets == null) {
+      if (terms.isSterms())
+        buckets = new LazyViewList<>(terms.sterms().buckets().array(), ESDocumentTermsBucket::new);
+      else if (terms.isLterms())
+        buckets = new LazyViewList<>(terms.lterms().buckets().array(), ESDocumentTermsBucket::new);
+      else if (terms.isDterms())
+        buckets = new LazyViewList<>(terms.dterms().buckets().array(), ESDocumentTermsBucket::new);
+      else
+        buckets = ImmutableList.of();
+    }
+    return buckets;
   }
 }
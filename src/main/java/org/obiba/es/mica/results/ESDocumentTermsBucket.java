@@ -12,34 +12,61 @@ package org.obiba.es.mica.results;
 
 import org.obiba.mica.spi.search.Searcher;
 
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
+import co.elastic.clients.elasticsearch._types.aggregations.DoubleTermsBucket;
+import co.elastic.clients.elasticsearch._types.aggregations.LongTermsBucket;
 import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
 
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 /**
- * {@link StringTermsBucket} wrapper.
+ * {@link StringTermsBucket}, {@link LongTermsBucket} and {@link DoubleTermsBucket} wrapper. The key of a numeric
+ * bucket is its formatted value when there is one ("true"/"false" for a boolean field, a date etc.).
  */
 public class ESDocumentTermsBucket implements Searcher.DocumentTermsBucket {
-  private final StringTermsBucket bucket;
+  private final String key;
+
+  private final long docCount;
+
+  private final Map<String, Aggregate> subAggregations;
+
+  private List<Searcher.DocumentAggregation> aggregations;
 
   public ESDocumentTermsBucket(StringTermsBucket bucket) {
-    this.bucket = bucket;
+    this(bucket.key().stringValue(), bucket.docCount(), bucket.aggregations());
+  }
+
+  public ESDocumentTermsBucket(LongTermsBucket bucket) {
+    this(bucket.keyAsString() != null ? bucket.keyAsString() : String.valueOf(bucket.key()), bucket.docCount(),
+        bucket.aggregations());
+  }
+
+  public ESDocumentTermsBucket(DoubleTermsBucket bucket) {
+    this(bucket.keyAsString() != null ? bucket.keyAsString() : String.valueOf(bucket.key()), bucket.docCount(),
+        bucket.aggregations());
+  }
+
+  private ESDocumentTermsBucket(String key, long docCount, Map<String, Aggregate> subAggregations) {
+    this.key = key;
+    this.docCount = docCount;
+    this.subAggregations = subAggregations;
   }
 
   @Override
   public long getDocCount() {
-    return bucket.docCount();
+    return docCount;
   }
 
   @Override
   public String getKeyAsString() {
-    return bucket.key().stringValue();
+    return key;
   }
 
   @Override
   public List<Searcher.DocumentAggregation> getAggregations() {
-    return bucket.aggregations().entrySet().stream()
-        .map(entry -> new ESDocumentAggregation(entry.getKey(), entry.getValue())).collect(Collectors.toList());
+    if (aggregations == null)
+      aggregations = ESDocumentAggregation.listOf(subAggregations);
+    return aggregations;
   }
 }
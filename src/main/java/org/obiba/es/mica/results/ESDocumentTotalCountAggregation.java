@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.results;
+
+import org.obiba.mica.spi.search.Searcher;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Global aggregation that was not requested: the count of documents of the index comes from elsewhere and is only
+ * read if the aggregation is.
+ */
+public class ESDocumentTotalCountAggregation implements Searcher.DocumentAggregation,
+    Searcher.DocumentGlobalAggregation {
+  private static final String GLOBAL_TYPE = "global";
+
+  private final String name;
+  private final LongSupplier docCount;
+
+  public ESDocumentTotalCountAggregation(String name, LongSupplier docCount) {
+    this.name = name;
+    this.docCount = docCount;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getType() {
+    return GLOBAL_TYPE;
+  }
+
+  @Override
+  public Searcher.DocumentStatsAggregation asStats() {
+    throw new IllegalStateException("Not a stats aggregation: " + name);
+  }
+
+  @Override
+  public Searcher.DocumentTermsAggregation asTerms() {
+    throw new IllegalStateException("Not a terms aggregation: " + name);
+  }
+
+  @Override
+  public Searcher.DocumentRangeAggregation asRange() {
+    throw new IllegalStateException("Not a range aggregation: " + name);
+  }
+
+  @Override
+  public Searcher.DocumentGlobalAggregation asGlobal() {
+    return this;
+  }
+
+  @Override
+  public long getDocCount() {
+    return docCount.getAsLong();
+  }
+}
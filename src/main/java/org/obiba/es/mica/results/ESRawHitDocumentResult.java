@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.results;
+
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.obiba.mica.spi.search.Searcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link Hit} wrapper of a raw source: the source stream is served from the response bytes, the source map is parsed
+ * on first access and then served as a read-only view. When only doc value fields were requested, the source is made
+ * of these fields.
+ */
+public class ESRawHitDocumentResult implements Searcher.DocumentResult {
+  private final Hit<ESRawSource> hit;
+  private final ObjectMapper objectMapper;
+
+  private Map<String, Object> source;
+
+  public ESRawHitDocumentResult(Hit<ESRawSource> hit, ObjectMapper objectMapper) {
+    this.hit = hit;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public String getId() {
+    return hit.id();
+  }
+
+  @Override
+  public boolean hasSource() {
+    return hit.source() != null || !hit.fields().isEmpty();
+  }
+
+  @Override
+  public Map<String, Object> getSource() {
+    if (source == null) {
+      try {
+        source = Collections.unmodifiableMap(hit.source() != null ? hit.source().asMap(objectMapper) : getDocValues());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return source;
+  }
+
+  @Override
+  public InputStream getSourceInputStream() {
+    if (hit.source() != null)
+      return hit.source().asInputStream();
+    try {
+      return new ByteArrayInputStream(objectMapper.writeValueAsBytes(getSource()));
+    } catch (JsonProcessingException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public String getClassName() {
+    if (!hasSource())
+      return null;
+    Object className = getSource().get("className");
+    return className == null ? null : className.toString();
+  }
+
+  //
+  // Private methods
+  //
+
+  /**
+   * Doc value fields as a source: dotted names are nested objects and single values are not in an array.
+   */
+  private Map<String, Object> getDocValues() {
+    Map<String, Object> docValues = new HashMap<>();
+    hit.fields().forEach((name, data) -> {
+      List<?> values = data.to(List.class);
+      Object value = values.size() == 1 ? values.get(0) : values;
+      Map<String, Object> parent = docValues;
+      String[] path = name.split("\\.");
+      for (int i = 0; i < path.length - 1; i++) {
+        Object child = parent.computeIfAbsent(path[i], k -> new HashMap<String, Object>());
+        if (!(child instanceof Map)) {
+          // a value is already there, keep the dotted name
+          docValues.put(name, value);
+          return;
+        }
+        parent = (Map<String, Object>) child;
+      }
+      parent.put(path[path.length - 1], value);
+    });
+    return docValues;
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.results;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Hit source kept as raw JSON (UTF-8) bytes: the source is copied token by token from the response, without building
+ * a JSON tree, and is only parsed if it is read as a map.
+ */
+@JsonDeserialize(using = ESRawSource.Deserializer.class)
+public final class ESRawSource {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final byte[] bytes;
+
+  private ESRawSource(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  public InputStream asInputStream() {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  public Map<String, Object> asMap(ObjectMapper objectMapper) throws IOException {
+    return objectMapper.readValue(bytes, new TypeReference<Map<String, Object>>() {
+    });
+  }
+
+  @Override
+  public String toString() {
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public static class Deserializer extends StdDeserializer<ESRawSource> {
+
+    public Deserializer() {
+      super(ESRawSource.class);
+    }
+
+    @Override
+    public ESRawSource deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+        generator.copyCurrentStructure(parser);
+      }
+      return new ESRawSource(out.toByteArray());
+    }
+  }
+}
@@ -11,15 +11,22 @@
 package org.obiba.es.mica.results;
 
 import co.elastic.clients.elasticsearch._types.aggregations.Aggregate;
-import co.elastic.clients.elasticsearch._types.aggregations.StringTermsBucket;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.TotalHits;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.obiba.mica.spi.search.Searcher;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -28,41 +35,88 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  * {@link SearchResponse} wrapper.
  */
 public class ESResponseDocumentResults implements Searcher.DocumentResults {
-  private final SearchResponse<ObjectNode> response;
-  private final ObjectMapper objectMapper;
+  private final SearchResponse<?> response;
+  private final Supplier<List<Searcher.DocumentResult>> documents;
+  private final Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader;
+
+  // views of the aggregations, built once per response
+  private final Map<String, Map<String, Long>> aggregationCounts = new ConcurrentHashMap<>();
+  private List<Searcher.DocumentAggregation> aggregations;
+  private final List<Searcher.DocumentAggregation> addedAggregations = new ArrayList<>();
 
   public ESResponseDocumentResults(SearchResponse<ObjectNode> response, ObjectMapper objectMapper) {
+    this(response, objectMapper, ESDocumentTermsAggregation::new);
+  }
+
+  /**
+   * @param termsReader makes the terms views of the aggregations, see {@link ESColumnarTermsAggregation}
+   */
+  public ESResponseDocumentResults(SearchResponse<ObjectNode> response, ObjectMapper objectMapper,
+      Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader) {
+    this(response, hit -> new ESHitDocumentResult(hit, objectMapper), termsReader);
+  }
+
+  /**
+   * @param hitReader makes the document result of a hit, depending on how its source was deserialized
+   * @param termsReader makes the terms views of the aggregations
+   */
+  public <T> ESResponseDocumentResults(SearchResponse<T> response, Function<Hit<T>, Searcher.DocumentResult> hitReader,
+      Function<Aggregate, Searcher.DocumentTermsAggregation> termsReader) {
     this.response = response;
-    this.objectMapper = objectMapper;
+    this.documents = () -> response.hits().hits().stream().map(hitReader).collect(Collectors.toList());
+    this.termsReader = termsReader;
+  }
+
+  /**
+   * Add an aggregation that is not in the response.
+   */
+  public ESResponseDocumentResults withAggregation(Searcher.DocumentAggregation aggregation) {
+    addedAggregations.add(aggregation);
+    aggregations = null;
+    return this;
   }
 
   @Override
   public long getTotal() {
-    return response.hits().total().value();
+    // no total when the hits are not tracked, the returned ones are the only known
+    TotalHits total = response.hits().total();
+    return total == null ? response.hits().hits().size() : total.value();
   }
 
   @Override
   public List<Searcher.DocumentResult> getDocuments() {
-    return StreamSupport.stream(response.hits().hits().spliterator(), false)
-        .map(h -> new ESHitDocumentResult(h, objectMapper))
-        .collect(Collectors.toList());
+    return documents.get();
   }
 
   @Override
   public Map<String, Long> getAggregation(String field) {
-
-    Aggregate aggregation = response.aggregations().get(field);
-    Aggregate.Kind aggregationKind = aggregation._kind();
-
-    if (aggregationKind.name() != "sterms")
-      return new HashMap<>();
-    return aggregation.sterms().buckets().array().stream()
-        .collect(Collectors.toMap(b -> b.key().stringValue(), StringTermsBucket::docCount));
+    return aggregationCounts.computeIfAbsent(field, this::getAggregationCounts);
   }
 
   @Override
   public List<Searcher.DocumentAggregation> getAggregations() {
-    return response.aggregations().entrySet().stream()
-        .map(entry -> new ESDocumentAggregation(entry.getKey(), entry.getValue())).collect(Collectors.toList());
+    if (aggregations == null) {
+      List<Searcher.DocumentAggregation> responseAggregations = ESDocumentAggregation.listOf(response.aggregations(),
+          termsReader);
+      aggregations = addedAggregations.isEmpty()
+          ? responseAggregations
+          : ImmutableList.<Searcher.DocumentAggregation>builder().addAll(responseAggregations)
+              .addAll(addedAggregations).build();
+    }
+    return aggregations;
+  }
+
+  //
+  // Private methods
+  //
+
+  private Map<String, Long> getAggregationCounts(String field) {
+    Aggregate aggregation = response.aggregations().get(field);
+    if (aggregation == null || !ESDocumentTermsAggregation.isTerms(aggregation))
+      return ImmutableMap.of();
+    Map<String, Long> counts = new HashMap<>();
+    termsReader.apply(aggregation).getBuckets()
+        .forEach(b -> counts.put(b.getKeyAsString(), b.getDocCount()));
+    return Collections.unmodifiableMap(counts);
   }
 }
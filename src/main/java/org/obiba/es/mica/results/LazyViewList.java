@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.results;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * Read-only list of the views of the elements of a source list: a view is created when the element is first accessed
+ * and then reused. Creating a view twice, when accessed concurrently, is harmless as views are stateless wrappers.
+ */
+class LazyViewList<S, T> extends AbstractList<T> implements RandomAccess {
+
+  private final List<S> sources;
+
+  private final Function<S, T> viewer;
+
+  private final Object[] views;
+
+  LazyViewList(List<S> sources, Function<S, T> viewer) {
+    this.sources = sources;
+    this.viewer = viewer;
+    this.views = new Object[sources.size()];
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    Object view = views[index];
+    if (view == null) {
+      view = viewer.apply(sources.get(index));
+      views[index] = view;
+    }
+    return (T) view;
+  }
+
+  @Override
+  public int size() {
+    return views.length;
+  }
+}
@@ -11,6 +11,11 @@
 package org.obiba.es.mica.support;
 
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.obiba.mica.spi.search.support.AggregationHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,49 +31,76 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+/**
+ * Builds the aggregations described by the aggregation properties. The properties are compiled once per content and
+ * locales into immutable aggregations, that are shared by the requests: the parser has no per request state and can
+ * be used concurrently.
+ */
 public class AggregationParser {
 
   private static final Logger log = LoggerFactory.getLogger(AggregationParser.class);
 
-  private List<String> locales;
+  private static final Set<String> AGGREGATION_TYPES = ImmutableSet.of(AggregationHelper.AGG_STATS,
+      AggregationHelper.AGG_TERMS, AggregationHelper.AGG_RANGE);
+
+  private static final long MIN_DOC_COUNT = 0;
 
-  private long minDocCount = 0;
+  private final Cache<Key, Map<String, Aggregation>> templates = CacheBuilder.newBuilder()
+      .maximumSize(100)
+      .build();
 
   public AggregationParser() {
   }
 
-  public void setLocales(List<String> locales) {
-    this.locales = locales;
+  /**
+   * Aggregations described by the properties, in an immutable map. The localized fields are aggregated for each of the
+   * locales, or for the default locale if there are none.
+   */
+  public Map<String, Aggregation> getAggregations(@Nullable Properties properties,
+      @Nullable Map<String, Properties> subProperties, @Nullable List<String> locales) {
+    if (properties == null)
+      return ImmutableMap.of();
+
+    // the properties are compared in place, they are only copied into the key of a new entry
+    Map<String, Aggregation> aggregations = templates.getIfPresent(new Key(properties, subProperties, locales));
+    if (aggregations == null) {
+      aggregations = ImmutableMap.copyOf(compile(properties, subProperties, locales));
+      templates.put(Key.copyOf(properties, subProperties, locales), aggregations);
+    }
+    return aggregations;
   }
 
-  public Map<String, Aggregation> getAggregations(@Nullable Properties properties,
-      @Nullable Map<String, Properties> subProperties) {
+  //
+  // Private methods
+  //
+
+  private Map<String, Aggregation> compile(@Nullable Properties properties,
+      @Nullable Map<String, Properties> subProperties, @Nullable List<String> locales) {
     Map<String, Aggregation> aggregations = new HashMap<>();
     if (properties == null)
       return aggregations;
 
-    SortedMap<String, ?> sortedSystemProperties = new TreeMap(properties);
-    String prevKey = null;
-    for (Map.Entry<String, ?> entry : sortedSystemProperties.entrySet()) {
-      String key = entry.getKey().replaceAll("\\" + AggregationHelper.PROPERTIES + ".*$", "");
-      if (!key.equals(prevKey)) {
-        Map<String, Aggregation> parsedAggregationMap = parseAggregation(key, properties, subProperties);
-        aggregations.putAll(parsedAggregationMap);
-        prevKey = key;
-      }
+    // aggregation keys are the property names without their suffix, in property name order
+    SortedSet<String> keys = new TreeSet<>();
+    for (String name : properties.stringPropertyNames()) {
+      int suffix = name.indexOf(AggregationHelper.PROPERTIES);
+      keys.add(suffix < 0 ? name : name.substring(0, suffix));
     }
+    keys.forEach(key -> aggregations.putAll(parseAggregation(key, properties, subProperties, locales)));
 
     return aggregations;
   }
 
   private Map<String, Aggregation> parseAggregation(String key, Properties properties,
-      @Nullable Map<String, Properties> subProperties) {
+      @Nullable Map<String, Properties> subProperties, @Nullable List<String> locales) {
     Boolean localized = Boolean.valueOf(properties.getProperty(key + AggregationHelper.LOCALIZED));
     String aliasProperty = properties.getProperty(key + AggregationHelper.ALIAS);
     String typeProperty = properties.getProperty(key + AggregationHelper.TYPE);
@@ -80,21 +112,21 @@ public class AggregationParser {
 
     IntStream.range(0, types.size()).forEach(i -> {
       String aggType = getAggregationType(types.get(i), localized);
-      getFields(key, aliases.get(i), localized).entrySet().forEach(entry -> {
+      getFields(key, aliases.get(i), localized, locales).entrySet().forEach(entry -> {
         log.trace("Building aggregation '{}' of type '{}'", entry.getKey(), aggType);
 
         switch (aggType) {
           case AggregationHelper.AGG_STERMS:
             String termsEntryValue = entry.getValue();
             String termsEntryKey = entry.getKey();
-            int minDocCountAsInt = Long.valueOf(minDocCount).intValue();
+            int minDocCountAsInt = Long.valueOf(MIN_DOC_COUNT).intValue();
 
             TermsAggregation termsAggregation = TermsAggregation.of(a -> a.field(termsEntryValue)
                 .size(Short.toUnsignedInt(Short.MAX_VALUE)).minDocCount(minDocCountAsInt > -1 ? minDocCountAsInt : 0));
 
             if (subProperties != null && subProperties.containsKey(termsEntryValue)) {
-              Map<String, Aggregation> parsedSubAggregations = getAggregations(subProperties.get(termsEntryValue),
-                  null);
+              Map<String, Aggregation> parsedSubAggregations = compile(subProperties.get(termsEntryValue), null,
+                  locales);
               parsedSubAggregations.remove(termsEntryValue);
 
               parsed.put(termsEntryKey,
@@ -131,8 +163,8 @@ public class AggregationParser {
             });
 
             if (subProperties != null && subProperties.containsKey(rangeEntryValue)) {
-              Map<String, Aggregation> parsedSubAggregations = getAggregations(subProperties.get(rangeEntryValue),
-                  null);
+              Map<String, Aggregation> parsedSubAggregations = compile(subProperties.get(rangeEntryValue), null,
+                  locales);
               parsed.put(rangeEntryKey,
                   Aggregation.of(a -> a.range(rangeAggregationBuilder.build()).aggregations(parsedSubAggregations)));
             } else {
@@ -149,7 +181,8 @@ public class AggregationParser {
     return parsed;
   }
 
-  private Map<String, String> getFields(String field, String alias, Boolean localized) {
+  private Map<String, String> getFields(String field, String alias, Boolean localized,
+      @Nullable List<String> locales) {
     String name = AggregationHelper.formatName(Strings.isNullOrEmpty(alias) ? field : alias);
     final Map<String, String> fields = new HashMap<>();
     if (localized) {
@@ -178,10 +211,64 @@ public class AggregationParser {
    * @return
    */
   private String getAggregationType(String type, Boolean localized) {
-    return !localized && !Strings.isNullOrEmpty(type)
-        && type.matches(String.format("^(%s|%s|%s)$", AggregationHelper.AGG_STATS, AggregationHelper.AGG_TERMS,
-            AggregationHelper.AGG_RANGE))
-                ? type
-                : AggregationHelper.AGG_STERMS;
+    return !localized && !Strings.isNullOrEmpty(type) && AGGREGATION_TYPES.contains(type)
+        ? type
+        : AggregationHelper.AGG_STERMS;
+  }
+
+  /**
+   * Aggregation properties, sub-aggregation properties and locales of a compilation.
+   */
+  private static final class Key {
+
+    private final Properties properties;
+
+    @Nullable
+    private final Map<String, Properties> subProperties;
+
+    @Nullable
+    private final List<String> locales;
+
+    private final int hash;
+
+    private Key(Properties properties, @Nullable Map<String, Properties> subProperties,
+        @Nullable List<String> locales) {
+      this.properties = properties;
+      this.subProperties = subProperties;
+      this.locales = locales;
+      hash = Objects.hash(properties, subProperties, locales);
+    }
+
+    /**
+     * Key that does not change if the properties passed by the caller are modified.
+     */
+    static Key copyOf(Properties properties, @Nullable Map<String, Properties> subProperties,
+        @Nullable List<String> locales) {
+      Map<String, Properties> subPropertiesCopy = null;
+      if (subProperties != null) {
+        subPropertiesCopy = new HashMap<>();
+        for (Map.Entry<String, Properties> entry : subProperties.entrySet())
+          subPropertiesCopy.put(entry.getKey(),
+              entry.getValue() == null ? null : (Properties) entry.getValue().clone());
+      }
+      return new Key((Properties) properties.clone(), subPropertiesCopy,
+          locales == null ? null : ImmutableList.copyOf(locales));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof Key))
+        return false;
+      Key other = (Key) o;
+      return hash == other.hash && properties.equals(other.properties)
+          && Objects.equals(subProperties, other.subProperties) && Objects.equals(locales, other.locales);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 }
@@ -37,6 +37,15 @@ final public class ESHitSourceMapHelper {
     flattenMap(mapper, source, flattened, "");
   }
 
+  /**
+   * Same as {@link #flattenMap(ObjectMapper, Hit)} for a source decoded as a map.
+   */
+  public static Map<String, String> flattenMap(Map<?, ?> source) {
+    Map<String, String> flattenedMap = Maps.newHashMap();
+    flattenMap(source, flattenedMap, "");
+    return flattenedMap;
+  }
+
   /**
    * ES source filtering returns a hierarchy of HashMaps(attributes => label => en
    * => "bla"). This helper flattens the
@@ -61,6 +70,16 @@ final public class ESHitSourceMapHelper {
     }
   }
 
+  private static void flattenMap(Map<?, ?> source, Map<String, String> flattened, String key) {
+    source.forEach((name, value) -> {
+      if (value instanceof Map) {
+        flattenMap((Map<?, ?>) value, flattened, addPrefix(key, name.toString()));
+      } else {
+        flattened.put(addPrefix(key, name.toString()), value instanceof String ? (String) value : null);
+      }
+    });
+  }
+
   private static String addPrefix(String key, String value) {
     return Strings.isNullOrEmpty(key) ? value : key + "." + value;
   }
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.support;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import co.elastic.clients.elasticsearch._types.SlicedScroll;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.core.search.SourceConfig;
+import co.elastic.clients.elasticsearch.core.search.TrackHits;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over all the hits of a query using a point in time and search_after, one page at a time, so that there
+ * is no max_result_window limit, deep pages are as fast as the first one and only one page is held in memory. The
+ * point in time is released when the iteration is exhausted or when the iterator is closed, unless it was provided
+ * by the caller (sliced reads share one point in time, see {@link #openPointInTime}).
+ *
+ * @param <T> class the hit sources are read as
+ */
+public class PointInTimeHitIterator<T> implements Iterator<Hit<T>>, AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(PointInTimeHitIterator.class);
+
+  private static final Time KEEP_ALIVE = Time.of(t -> t.time("1m"));
+
+  private static final TrackHits NO_TRACK_HITS = TrackHits.of(t -> t.enabled(false));
+
+  private static final String SHARD_DOC = "_shard_doc";
+
+  // stable tiebreaker: unique per document within a point in time
+  private static final SortOptions SHARD_DOC_SORT = SortOptions.of(s -> s.field(f -> f.field(SHARD_DOC)
+      .order(SortOrder.Asc)));
+
+  private final ElasticsearchClient client;
+
+  private final Class<T> documentClass;
+
+  private final Query query;
+
+  private final List<SortOptions> sortOptions;
+
+  @Nullable
+  private final SourceConfig source;
+
+  private final int pageSize;
+
+  @Nullable
+  private final SlicedScroll slice;
+
+  // whether the point in time was opened by this iterator and must be released by it
+  private final boolean ownsPit;
+
+  private String pitId;
+
+  private List<FieldValue> searchAfter;
+
+  private Iterator<Hit<T>> page = Collections.emptyIterator();
+
+  private boolean exhausted = false;
+
+  public PointInTimeHitIterator(ElasticsearchClient client, Class<T> documentClass, String indexName, Query query,
+      @Nullable List<SortOptions> sortOptions, @Nullable SourceConfig source, int pageSize) {
+    this(client, documentClass, openPointInTime(client, indexName), true, query, sortOptions, source, pageSize, null);
+  }
+
+  /**
+   * Iterates over one slice of a point in time opened by the caller, who is responsible for closing it.
+   */
+  public PointInTimeHitIterator(ElasticsearchClient client, Class<T> documentClass, String pitId, Query query,
+      @Nullable List<SortOptions> sortOptions, @Nullable SourceConfig source, int pageSize,
+      @Nullable SlicedScroll slice) {
+    this(client, documentClass, pitId, false, query, sortOptions, source, pageSize, slice);
+  }
+
+  private PointInTimeHitIterator(ElasticsearchClient client, Class<T> documentClass, String pitId, boolean ownsPit,
+      Query query, @Nullable List<SortOptions> sortOptions, @Nullable SourceConfig source, int pageSize,
+      @Nullable SlicedScroll slice) {
+    this.client = client;
+    this.documentClass = documentClass;
+    this.pitId = pitId;
+    this.ownsPit = ownsPit;
+    this.query = query;
+    this.sortOptions = withTiebreaker(sortOptions);
+    this.source = source;
+    this.pageSize = pageSize;
+    this.slice = slice;
+  }
+
+  public static String openPointInTime(ElasticsearchClient client, String indexName) {
+    try {
+      return client.openPointInTime(r -> r.index(indexName).keepAlive(KEEP_ALIVE)).id();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public static void closePointInTime(ElasticsearchClient client, String pitId) {
+    try {
+      client.closePointInTime(r -> r.id(pitId));
+    } catch (IOException e) {
+      log.warn("Failed to close point in time - {}", e.getMessage());
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!page.hasNext() && !exhausted) {
+      fetchNextPage();
+    }
+    return page.hasNext();
+  }
+
+  @Override
+  public Hit<T> next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    return page.next();
+  }
+
+  @Override
+  public void close() {
+    exhausted = true;
+    page = Collections.emptyIterator();
+    if (ownsPit && pitId != null) {
+      closePointInTime(client, pitId);
+    }
+    pitId = null;
+  }
+
+  //
+  // Private methods
+  //
+
+  private void fetchNextPage() {
+    try {
+      SearchResponse<T> response = client.search(s -> {
+        s.pit(p -> p.id(pitId).keepAlive(KEEP_ALIVE))
+            .query(query)
+            .size(pageSize)
+            .sort(sortOptions)
+            .trackTotalHits(NO_TRACK_HITS)
+            .source(source)
+            .slice(slice);
+        if (searchAfter != null)
+          s.searchAfter(searchAfter);
+        return s;
+      }, documentClass);
+
+      // the point in time id may change between requests
+      if (response.pitId() != null)
+        pitId = response.pitId();
+
+      List<Hit<T>> hits = response.hits().hits();
+      if (hits.size() < pageSize)
+        close();
+      if (!hits.isEmpty())
+        searchAfter = hits.get(hits.size() - 1).sort();
+      page = hits.iterator();
+    } catch (IOException e) {
+      close();
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static List<SortOptions> withTiebreaker(@Nullable List<SortOptions> sortOptions) {
+    List<SortOptions> sorts = sortOptions == null ? Lists.newArrayList() : Lists.newArrayList(sortOptions);
+    boolean hasTiebreaker = sorts.stream().anyMatch(s -> s.isField() && SHARD_DOC.equals(s.field().field()));
+    if (!hasTiebreaker)
+      sorts.add(SHARD_DOC_SORT);
+    return sorts;
+  }
+
+}
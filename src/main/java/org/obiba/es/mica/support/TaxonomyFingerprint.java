@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.support;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.TaxonomyEntity;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+import javax.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Hash of the content of taxonomies: names and attributes of the taxonomy, of its vocabularies and of their terms. Two
+ * taxonomies with the same fingerprint give the same mappings and lookups, whether they are the same instances or
+ * not, and a taxonomy modified in place gets a new fingerprint.
+ */
+public final class TaxonomyFingerprint {
+
+  private TaxonomyFingerprint() {
+  }
+
+  public static HashCode of(Iterable<Taxonomy> taxonomies) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    for (Taxonomy taxonomy : taxonomies)
+      putTaxonomy(hasher, taxonomy);
+    return hasher.hash();
+  }
+
+  public static HashCode of(@Nullable Taxonomy taxonomy) {
+    Hasher hasher = Hashing.murmur3_128().newHasher();
+    putTaxonomy(hasher, taxonomy);
+    return hasher.hash();
+  }
+
+  //
+  // Private methods
+  //
+
+  private static void putTaxonomy(Hasher hasher, @Nullable Taxonomy taxonomy) {
+    if (taxonomy == null) {
+      hasher.putInt(-1);
+      return;
+    }
+    putEntity(hasher, taxonomy);
+    hasher.putInt(taxonomy.hasVocabularies() ? taxonomy.getVocabularies().size() : 0);
+    if (taxonomy.hasVocabularies()) {
+      for (Vocabulary vocabulary : taxonomy.getVocabularies()) {
+        putEntity(hasher, vocabulary);
+        hasher.putInt(vocabulary.hasTerms() ? vocabulary.getTerms().size() : 0);
+        if (vocabulary.hasTerms())
+          vocabulary.getTerms().forEach(term -> putEntity(hasher, term));
+      }
+    }
+  }
+
+  private static void putEntity(Hasher hasher, TaxonomyEntity entity) {
+    putString(hasher, entity.getName());
+    Map<String, String> attributes = entity.getAttributes() == null
+        ? new TreeMap<>()
+        : new TreeMap<>(entity.getAttributes());
+    hasher.putInt(attributes.size());
+    attributes.forEach((key, value) -> {
+      putString(hasher, key);
+      putString(hasher, value);
+    });
+  }
+
+  private static void putString(Hasher hasher, @Nullable String value) {
+    if (value == null) {
+      hasher.putInt(-1);
+    } else {
+      hasher.putInt(value.length());
+      hasher.putString(value, StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.mapping;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.obiba.mica.spi.search.ConfigurationProvider;
+import org.obiba.mica.spi.search.Indexer;
+import org.obiba.mica.spi.search.SearchEngineService;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easymock.EasyMock.createNiceMock;
+
+public class IndexConfigurationRegistryTest {
+
+  private final ConfigurationProvider configurationProvider = createNiceMock(ConfigurationProvider.class);
+
+  @Test
+  public void test_index_names_resolve_to_their_configuration() {
+    StudyIndexConfiguration study = new StudyIndexConfiguration(configurationProvider);
+    TaxonomyIndexConfiguration taxonomy = new TaxonomyIndexConfiguration(configurationProvider);
+    IndexConfigurationRegistry registry = new IndexConfigurationRegistry(Arrays.asList(study, taxonomy));
+
+    assertThat(registry.getConfiguration(Indexer.DRAFT_STUDY_INDEX)).isSameAs(study);
+    assertThat(registry.getConfiguration(Indexer.PUBLISHED_STUDY_INDEX)).isSameAs(study);
+    assertThat(registry.getConfiguration(Indexer.VOCABULARY_INDEX)).isSameAs(taxonomy);
+    assertThat(registry.getConfiguration(Indexer.PERSON_INDEX)).isNull();
+    assertThat(registry.getIndexNames()).hasSize(5);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void test_index_with_several_configurations_is_rejected() {
+    new IndexConfigurationRegistry(Arrays.asList(new PersonIndexConfiguration(configurationProvider),
+        new PersonIndexConfiguration(configurationProvider)));
+  }
+
+  @Test
+  public void test_other_listeners_are_notified_of_every_index() {
+    List<String> created = Lists.newArrayList();
+    Indexer.IndexConfigurationListener listener = new Indexer.IndexConfigurationListener() {
+      @Override
+      public void onIndexCreated(SearchEngineService searchEngineService, String indexName) {
+        created.add(indexName);
+      }
+    };
+    IndexConfigurationRegistry registry = new IndexConfigurationRegistry(Arrays.asList(listener));
+
+    registry.onIndexCreated(null, Indexer.PERSON_INDEX);
+    registry.onIndexCreated(null, "custom");
+    assertThat(created).containsExactly(Indexer.PERSON_INDEX, "custom");
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.MatchAllQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch._types.query_dsl.QueryStringQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.TermQuery;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BoolQueryOptimizerTest {
+
+  @Test
+  public void test_nested_and_is_flattened_into_filter() {
+    Query query = and(and(and(term("datasetId", "ds1")), term("studyId", "std1")));
+    Query optimized = BoolQueryOptimizer.optimize(query);
+    assertThat(optimized.isBool()).isTrue();
+    assertThat(optimized.bool().must()).isEmpty();
+    assertThat(optimized.bool().filter()).hasSize(2);
+    assertThat(optimized.bool().filter()).allMatch(Query::isTerm);
+  }
+
+  @Test
+  public void test_double_negation_is_removed() {
+    Query query = not(not(queryString("paino")));
+    Query optimized = BoolQueryOptimizer.optimize(query);
+    assertThat(optimized.isBool()).isTrue();
+    assertThat(optimized.bool().mustNot()).isEmpty();
+    assertThat(optimized.bool().filter()).hasSize(1);
+    assertThat(optimized.bool().filter().get(0).isQueryString()).isTrue();
+  }
+
+  @Test
+  public void test_or_terms_on_same_field_are_merged() {
+    Query query = or(term("studyId", "std1"), or(term("studyId", "std2"), term("studyId", "std1")));
+    Query optimized = BoolQueryOptimizer.optimize(query);
+    assertThat(optimized.isTerms()).isTrue();
+    assertThat(optimized.terms().field()).isEqualTo("studyId");
+    assertThat(optimized.terms().terms().value()).hasSize(2);
+  }
+
+  @Test
+  public void test_match_all_is_removed_from_conjunction() {
+    Query query = and(MatchAllQuery.of(m -> m)._toQuery(), queryString("paino"));
+    Query optimized = BoolQueryOptimizer.optimize(query);
+    assertThat(optimized.isQueryString()).isTrue();
+  }
+
+  @Test
+  public void test_optional_should_is_kept_optional() {
+    Query query = BoolQuery.of(b -> b.must(and()).should(queryString("paino")))._toQuery();
+    Query optimized = BoolQueryOptimizer.optimize(query);
+    assertThat(optimized.isBool()).isTrue();
+    assertThat(optimized.bool().filter()).hasSize(1);
+    assertThat(optimized.bool().should()).hasSize(1);
+  }
+
+  private static Query and(Query... queries) {
+    return BoolQuery.of(b -> b.must(Arrays.asList(queries)))._toQuery();
+  }
+
+  private static Query or(Query... queries) {
+    return BoolQuery.of(b -> b.should(Arrays.asList(queries)))._toQuery();
+  }
+
+  private static Query not(Query query) {
+    return BoolQuery.of(b -> b.mustNot(query))._toQuery();
+  }
+
+  private static Query term(String field, String value) {
+    return TermQuery.of(t -> t.field(field).value(value))._toQuery();
+  }
+
+  private static Query queryString(String query) {
+    return QueryStringQuery.of(q -> q.query(query))._toQuery();
+  }
+}
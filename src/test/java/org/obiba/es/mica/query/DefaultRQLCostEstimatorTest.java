@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.mica.spi.search.rql.RQLFieldResolver;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+public class DefaultRQLCostEstimatorTest {
+
+  private final DefaultRQLCostEstimator estimator = new DefaultRQLCostEstimator();
+
+  private RQLFieldResolver rqlFieldResolver;
+
+  @Before
+  public void setUp() {
+    rqlFieldResolver = createNiceMock(RQLFieldResolver.class);
+    expect(rqlFieldResolver.getAnalzedFields()).andReturn(Arrays.asList("name.analyzed", "label.analyzed")).anyTimes();
+    replay(rqlFieldResolver);
+  }
+
+  @Test
+  public void test_leading_wildcard() {
+    assertThat(estimate("like(name,*abc)")).isEqualTo(DefaultRQLCostEstimator.LEADING_WILDCARD_COST);
+    assertThat(estimate("like(name,abc*)")).isEqualTo(DefaultRQLCostEstimator.WILDCARD_COST);
+  }
+
+  @Test
+  public void test_regex() {
+    assertThat(estimate("like(name,/ab.*/)")).isEqualTo(DefaultRQLCostEstimator.REGEX_COST);
+  }
+
+  @Test
+  public void test_clause_count() {
+    // the and clause plus its three terms
+    assertThat(estimate("and(eq(a,x),eq(b,y),eq(c,z))")).isEqualTo(4 * DefaultRQLCostEstimator.TERM_COST);
+    assertThat(estimate("variable(and(eq(a,x),eq(b,y)),limit(0,10))")).isEqualTo(3 * DefaultRQLCostEstimator.TERM_COST);
+  }
+
+  @Test
+  public void test_terms_are_log_scaled() {
+    assertThat(estimate("out(a,(v1))")).isEqualTo(DefaultRQLCostEstimator.TERM_COST);
+    assertThat(estimate("out(a,(v1,v2,v3,v4,v5,v6,v7,v8))")).isEqualTo(4 * DefaultRQLCostEstimator.TERM_COST);
+  }
+
+  @Test
+  public void test_full_text_fan_out() {
+    // expanded to the explicit fields, or to the default field and the analyzed ones
+    assertThat(estimate("match(abc,(f1,f2,f3))")).isEqualTo(3 * DefaultRQLCostEstimator.TERM_COST);
+    assertThat(estimate("query(abc)")).isEqualTo(3 * DefaultRQLCostEstimator.TERM_COST);
+    assertThat(estimate("query(*abc)")).isEqualTo(3 * DefaultRQLCostEstimator.LEADING_WILDCARD_COST);
+  }
+
+  private long estimate(String rql) {
+    return estimator.estimate(RQLStreamingParser.parse(rql), rqlFieldResolver);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import net.jazdw.rql.converter.Converter;
+import net.jazdw.rql.converter.ConverterException;
+import net.jazdw.rql.parser.ASTNode;
+import net.jazdw.rql.parser.RQLParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Conversion of the values of a long in(field,(...)) list: the single pass classifier against the former regular
+ * expressions. Run with the test classpath, main class {@link #main(String[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RQLConverterBenchmark {
+
+  private static final Pattern DATE_PATTERN = Pattern.compile(
+      "^[0-9]{4}-(1[0-2]|0[1-9])-(3[01]|0[1-9]|[12][0-9])(T(2[0-3]|[01][0-9])(:[0-5][0-9])?(:[0-5][0-9])?(\\.[0-9][0-9]?[0-9]?)?(Z|[+-](?:2[0-3]|[01][0-9])(?::?(?:[0-5][0-9]))?)?)?$");
+
+  private static final Pattern NUMBER_PATTERN = Pattern.compile("^[0-9]+[\\.]*[0-9]*$");
+
+  @Param({"100", "10000"})
+  private int size;
+
+  private String[] values;
+
+  private String rql;
+
+  private final RQLConverter.AutoValueConverter converter = new RQLConverter.AutoValueConverter();
+
+  @Setup
+  public void setup() {
+    values = new String[size];
+    StringBuilder builder = new StringBuilder("variable(in(id,(");
+    for (int i = 0; i < size; i++) {
+      // mix of identifiers, numbers and dates as found in the portal queries
+      switch (i % 3) {
+        case 0:
+          values[i] = "study-" + i + ":dataset:var" + i;
+          break;
+        case 1:
+          values[i] = String.valueOf(i);
+          break;
+        default:
+          values[i] = String.format("20%02d-0%d-1%dT10:30:00Z", i % 100, 1 + i % 9, i % 10);
+      }
+      builder.append(i == 0 ? "" : ",").append(values[i]);
+    }
+    rql = builder.append(")))").toString();
+  }
+
+  @Benchmark
+  public void classifier(Blackhole blackhole) throws ConverterException {
+    for (String value : values) {
+      blackhole.consume(converter.convert(value));
+    }
+  }
+
+  @Benchmark
+  public void regex(Blackhole blackhole) {
+    for (String value : values) {
+      blackhole.consume(convertWithRegex(value));
+    }
+  }
+
+  @Benchmark
+  public ASTNode parseWithSharedConverter() {
+    return new RQLParser(RQLConverter.INSTANCE).parse(rql);
+  }
+
+  private static Object convertWithRegex(String input) {
+    try {
+      if (NUMBER_PATTERN.matcher(input).matches())
+        return Converter.NUMBER.convert(input);
+    } catch (ConverterException e) {
+    }
+    try {
+      if (DATE_PATTERN.matcher(input).matches())
+        return Converter.DATE.convert(input);
+    } catch (ConverterException e) {
+    }
+    return input;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(RQLConverterBenchmark.class.getSimpleName()).build()).run();
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import org.junit.Test;
+
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RQLConverterTest {
+
+  // former regular expressions, the classifier must give the same answers
+  private static final Pattern DATE_PATTERN = Pattern.compile(
+      "^[0-9]{4}-(1[0-2]|0[1-9])-(3[01]|0[1-9]|[12][0-9])(T(2[0-3]|[01][0-9])(:[0-5][0-9])?(:[0-5][0-9])?(\\.[0-9][0-9]?[0-9]?)?(Z|[+-](?:2[0-3]|[01][0-9])(?::?(?:[0-5][0-9]))?)?)?$");
+
+  private static final Pattern NUMBER_PATTERN = Pattern.compile("^[0-9]+[\\.]*[0-9]*$");
+
+  private static final String[] TOKENS = {
+      "", "0", "1", "123", "1.5", "1..5", "1.", ".5", "-1", "1e5", "12a", "a12", "v1", "CATEGORICAL", "true",
+      "2024-01-31", "2024-13-01", "2024-00-10", "2024-02-32", "2024-02-00", "24-01-01", "20240-01-01", "2024/01/01",
+      "2024-01-31T", "2024-01-31T23", "2024-01-31T24", "2024-01-31T10:30", "2024-01-31T10:60",
+      "2024-01-31T10:30:45", "2024-01-31T10:30:45:10", "2024-01-31T10:30:45.1", "2024-01-31T10:30:45.123",
+      "2024-01-31T10:30:45.1234", "2024-01-31T10:30:45.", "2024-01-31T10:30Z", "2024-01-31T10:30ZZ",
+      "2024-01-31T10+02", "2024-01-31T10+02:30", "2024-01-31T10+0230", "2024-01-31T10-02:", "2024-01-31T10+24",
+      "2024-01-31T10+02:60", "2024-01-31T10+02:3", "2024-01-31T10.5Z", "2024-01-31Z", "2024-01-31 10:30"
+  };
+
+  @Test
+  public void test_is_number_same_as_pattern() {
+    for (String token : TOKENS) {
+      assertThat(RQLConverter.AutoValueConverter.isNumber(token)).as(token)
+          .isEqualTo(NUMBER_PATTERN.matcher(token).matches());
+    }
+  }
+
+  @Test
+  public void test_is_date_same_as_pattern() {
+    for (String token : TOKENS) {
+      assertThat(RQLConverter.AutoValueConverter.isDate(token)).as(token)
+          .isEqualTo(DATE_PATTERN.matcher(token).matches());
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import co.elastic.clients.elasticsearch._types.FieldSort;
+import co.elastic.clients.elasticsearch._types.SortOptions;
+import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.mapping.FieldType;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import org.junit.Before;
+import org.junit.Test;
+import org.obiba.es.mica.ESIndexFieldMapping;
+import org.obiba.mica.spi.search.rql.RQLFieldResolver;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+
+/**
+ * Shapes of the Elasticsearch queries and sorts built from RQL, the fields being resolved as they are named.
+ */
+public class RQLQueryBuilderTest {
+
+  private RQLFieldResolver rqlFieldResolver;
+
+  private ESIndexFieldMapping indexFieldMapping;
+
+  @Before
+  public void setUp() {
+    rqlFieldResolver = createNiceMock(RQLFieldResolver.class);
+    expect(rqlFieldResolver.resolveField(anyString()))
+        .andAnswer(() -> fieldData((String) getCurrentArguments()[0])).anyTimes();
+    expect(rqlFieldResolver.resolveFieldUnanalyzed(anyString()))
+        .andAnswer(() -> fieldData((String) getCurrentArguments()[0])).anyTimes();
+    expect(rqlFieldResolver.getAnalzedFields()).andReturn(Collections.emptyList()).anyTimes();
+    replay(rqlFieldResolver);
+
+    indexFieldMapping = createNiceMock(ESIndexFieldMapping.class);
+    expect(indexFieldMapping.hasSubfield("code", ESIndexFieldMapping.WILDCARD_SUBFIELD)).andReturn(true).anyTimes();
+    replay(indexFieldMapping);
+  }
+
+  @Test
+  public void test_like_trailing_wildcard_is_prefix() {
+    Query query = query("like(name,abc*)");
+    assertThat(query.isPrefix()).isTrue();
+    assertThat(query.prefix().field()).isEqualTo("name");
+    assertThat(query.prefix().value()).isEqualTo("abc");
+  }
+
+  @Test
+  public void test_like_on_wildcard_subfield() {
+    Query query = query("like(code,*abc*)");
+    assertThat(query.isWildcard()).isTrue();
+    assertThat(query.wildcard().field()).isEqualTo("code." + ESIndexFieldMapping.WILDCARD_SUBFIELD);
+    assertThat(query.wildcard().value()).isEqualTo("*abc*");
+  }
+
+  @Test
+  public void test_like_without_wildcard_subfield() {
+    Query query = query("like(name,*abc)");
+    assertThat(query.isWildcard()).isTrue();
+    assertThat(query.wildcard().field()).isEqualTo("name");
+  }
+
+  @Test
+  public void test_like_on_analyzed_field() {
+    Query query = query("like(name.analyzed,abc*)");
+    assertThat(query.isWildcard()).isTrue();
+    assertThat(query.wildcard().field()).isEqualTo("name.analyzed");
+    assertThat(query.wildcard().value()).isEqualTo("abc*");
+  }
+
+  @Test
+  public void test_like_downgraded_leading_wildcard() {
+    RQLQueryGuard guard = new RQLQueryGuard(new DefaultRQLCostEstimator(), 1, RQLQueryGuard.Action.DOWNGRADE);
+    Query query = new RQLQuery(RQLStreamingParser.parse("like(name,*abc*)"), rqlFieldResolver, indexFieldMapping,
+        guard).getQueryBuilder();
+    assertThat(query.isPrefix()).isTrue();
+    assertThat(query.prefix().value()).isEqualTo("abc");
+  }
+
+  @Test
+  public void test_like_empty_pattern_is_exists() {
+    RQLQueryGuard guard = new RQLQueryGuard(new DefaultRQLCostEstimator(), 1, RQLQueryGuard.Action.DOWNGRADE);
+    Query query = new RQLQuery(RQLStreamingParser.parse("like(name,*)"), rqlFieldResolver, indexFieldMapping,
+        guard).getQueryBuilder();
+    assertThat(query.isExists()).isTrue();
+    assertThat(query.exists().field()).isEqualTo("name");
+  }
+
+  @Test
+  public void test_sort_unmapped_and_missing_last() {
+    List<SortOptions> sorts = new RQLQuery(RQLStreamingParser.parse("variable(sort(-name,_score))"),
+        rqlFieldResolver, indexFieldMapping, RQLQueryGuard.UNLIMITED).getSortBuilders();
+    assertThat(sorts).hasSize(2);
+
+    FieldSort name = sorts.get(0).field();
+    assertThat(name.field()).isEqualTo("name");
+    assertThat(name.order()).isEqualTo(SortOrder.Desc);
+    assertThat(name.unmappedType()).isEqualTo(FieldType.Keyword);
+    assertThat(name.missing().stringValue()).isEqualTo("_last");
+
+    FieldSort score = sorts.get(1).field();
+    assertThat(score.field()).isEqualTo("_score");
+    assertThat(score.unmappedType()).isNull();
+    assertThat(score.missing()).isNull();
+  }
+
+  private Query query(String rql) {
+    return new RQLQuery(RQLStreamingParser.parse(rql), rqlFieldResolver, indexFieldMapping, RQLQueryGuard.UNLIMITED)
+        .getQueryBuilder();
+  }
+
+  private static RQLFieldResolver.FieldData fieldData(String field) {
+    RQLFieldResolver.FieldData data = createNiceMock(RQLFieldResolver.FieldData.class);
+    expect(data.getField()).andReturn(field).anyTimes();
+    replay(data);
+    return data;
+  }
+}
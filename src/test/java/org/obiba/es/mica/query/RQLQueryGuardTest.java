@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import net.jazdw.rql.parser.ASTNode;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class RQLQueryGuardTest {
+
+  private static final RQLCostEstimator FIXED_COST = (node, rqlFieldResolver) -> 100;
+
+  private final ASTNode node = RQLStreamingParser.parse("like(name,*abc)");
+
+  @Test
+  public void test_within_budget() {
+    for (RQLQueryGuard.Action action : RQLQueryGuard.Action.values())
+      assertThat(new RQLQueryGuard(FIXED_COST, 100, action).check(node, null)).isFalse();
+  }
+
+  @Test
+  public void test_no_budget() {
+    assertThat(new RQLQueryGuard(FIXED_COST, 0, RQLQueryGuard.Action.REJECT).check(node, null)).isFalse();
+  }
+
+  @Test
+  public void test_log() {
+    assertThat(new RQLQueryGuard(FIXED_COST, 10, RQLQueryGuard.Action.LOG).check(node, null)).isFalse();
+  }
+
+  @Test
+  public void test_reject() {
+    try {
+      new RQLQueryGuard(FIXED_COST, 10, RQLQueryGuard.Action.REJECT).check(node, null);
+      fail("Query over budget was not rejected");
+    } catch (RQLQueryCostException e) {
+      assertThat(e.getCost()).isEqualTo(100);
+      assertThat(e.getBudget()).isEqualTo(10);
+      assertThat(e.getMessage()).contains("100").contains("10");
+    }
+  }
+
+  @Test
+  public void test_downgrade() {
+    assertThat(new RQLQueryGuard(FIXED_COST, 10, RQLQueryGuard.Action.DOWNGRADE).check(node, null)).isTrue();
+  }
+}
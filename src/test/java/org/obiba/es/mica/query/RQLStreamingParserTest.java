@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import net.jazdw.rql.parser.ASTNode;
+import net.jazdw.rql.parser.RQLParser;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RQLStreamingParserTest {
+
+  @Test
+  public void test_single_call() {
+    ASTNode node = new RQLStreamingParser("variable(in(id,(a,b,c)),limit(0,10))").parse();
+    assertThat(node.getName()).isEqualTo("variable");
+    assertThat(node.getArgumentsSize()).isEqualTo(2);
+    ASTNode in = (ASTNode) node.getArgument(0);
+    assertThat(in.getName()).isEqualTo("in");
+    assertThat(in.getArgument(0)).isEqualTo("id");
+    assertThat(in.getArgument(1)).isInstanceOf(RQLValueList.class);
+    assertThat((List<Object>) in.getArgument(1)).containsExactly("a", "b", "c");
+    ASTNode limit = (ASTNode) node.getArgument(1);
+    assertThat(limit.getArgument(0)).isEqualTo(genericParse("limit(0,10)").getArgument(0));
+  }
+
+  @Test
+  public void test_several_calls() {
+    ASTNode node = new RQLStreamingParser("variable(exists(name)),study(match(paino+study))").parse();
+    assertThat(node.getName()).isEmpty();
+    assertThat(node.getArgumentsSize()).isEqualTo(2);
+    assertThat(((ASTNode) node.getArgument(1)).getName()).isEqualTo("study");
+  }
+
+  @Test
+  public void test_same_as_generic_parser() {
+    String rql = "variable(and(in(Mlstr_area.Lifestyle_behaviours,(Alcohol,Tobacco)),like(name,*weight*))," +
+        "sort(-name),fields((name,datasetId)))";
+    ASTNode expected = genericParse(rql);
+    ASTNode actual = new RQLStreamingParser(rql).parse();
+    assertThat(actual.toString()).isEqualTo(expected.toString());
+  }
+
+  @Test
+  public void test_large_in_is_parsed() {
+    StringBuilder rql = new StringBuilder("variable(in(id,(");
+    for (int i = 0; i < 10000; i++) {
+      if (i > 0)
+        rql.append(',');
+      rql.append("VAR").append(i);
+    }
+    rql.append(")))");
+    ASTNode node = RQLStreamingParser.parse(rql.toString());
+    List<?> ids = (List<?>) ((ASTNode) node.getArgument(0)).getArgument(1);
+    assertThat(ids).isInstanceOf(RQLValueList.class).hasSize(10000);
+  }
+
+  @Test
+  public void test_operator_syntax_is_not_supported() {
+    assertThatThrownBy(() -> new RQLStreamingParser("name=foo&age=10").parse())
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static ASTNode genericParse(String rql) {
+    return new RQLParser(RQLConverter.INSTANCE).parse(rql);
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import org.junit.Test;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.Term;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaxonomyIndexTest {
+
+  @Test
+  public void test_unchanged_taxonomies_are_not_indexed_again() {
+    Taxonomy taxonomy = taxonomy("Mica_test_unchanged", "t1");
+    List<Taxonomy> taxonomies = Collections.singletonList(taxonomy);
+    TaxonomyIndex index = TaxonomyIndex.of(taxonomies);
+    assertThat(index.getTermNames("Mica_test_unchanged", "vocabulary")).containsExactly("t1");
+
+    // an instance already seen is neither fingerprinted nor indexed again
+    taxonomy.getVocabularies().get(0).addTerm(term("t2"));
+    assertThat(TaxonomyIndex.of(taxonomies)).isSameAs(index);
+    assertThat(TaxonomyIndex.of(Collections.singletonList(taxonomy))).isSameAs(index);
+  }
+
+  @Test
+  public void test_same_content_same_index() {
+    TaxonomyIndex index = TaxonomyIndex.of(Collections.singletonList(taxonomy("Mica_test_same", "t1")));
+    assertThat(TaxonomyIndex.of(Collections.singletonList(taxonomy("Mica_test_same", "t1")))).isSameAs(index);
+  }
+
+  @Test
+  public void test_new_taxonomy_instance_is_indexed() {
+    TaxonomyIndex index = TaxonomyIndex.of(Collections.singletonList(taxonomy("Mica_test_new", "t1")));
+    TaxonomyIndex updated = TaxonomyIndex.of(Collections.singletonList(taxonomy("Mica_test_new", "t1", "t2")));
+    assertThat(updated).isNotSameAs(index);
+    assertThat(updated.getTermNames("Mica_test_new", "vocabulary")).containsExactly("t1", "t2");
+    assertThat(updated.getTermNames("Mica_test_new", "unknown")).isEmpty();
+  }
+
+  private static Taxonomy taxonomy(String name, String... termNames) {
+    Vocabulary vocabulary = new Vocabulary();
+    vocabulary.setName("vocabulary");
+    for (String termName : termNames)
+      vocabulary.addTerm(term(termName));
+    Taxonomy taxonomy = new Taxonomy();
+    taxonomy.setName(name);
+    taxonomy.addVocabulary(vocabulary);
+    return taxonomy;
+  }
+
+  private static Term term(String name) {
+    Term term = new Term();
+    term.setName(name);
+    return term;
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.query;
+
+import co.elastic.clients.elasticsearch._types.FieldValue;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TermValueListTest {
+
+  @Test
+  public void test_values_are_deduplicated_in_order() {
+    TermValueList terms = TermValueList.of(Arrays.asList("std2", "std1", "std2", 3));
+    assertThat(terms).containsExactly("std2", "std1", "3");
+  }
+
+  @Test
+  public void test_single_value() {
+    assertThat(TermValueList.of("std1")).containsExactly("std1");
+  }
+
+  @Test
+  public void test_field_values_view() {
+    TermValueList terms = TermValueList.of(new RQLValueList(new Object[] { "b", "a" }));
+    assertThat(terms.asFieldValues()).extracting(FieldValue::stringValue).containsExactly("b", "a");
+  }
+}
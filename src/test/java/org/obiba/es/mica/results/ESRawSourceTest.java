@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.results;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ESRawSourceTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  public void test_source_is_kept_as_json() throws IOException {
+    ESRawSource source = objectMapper.readValue("{\"id\": \"std1\", \"name\": {\"en\": \"Study\"}, \"n\": [1, 2]}",
+        ESRawSource.class);
+    assertThat(source.toString()).isEqualTo("{\"id\":\"std1\",\"name\":{\"en\":\"Study\"},\"n\":[1,2]}");
+  }
+
+  @Test
+  public void test_source_as_map() throws IOException {
+    ESRawSource source = objectMapper.readValue("{\"id\": \"std1\", \"name\": {\"en\": \"Study\"}}", ESRawSource.class);
+    Map<String, Object> map = source.asMap(objectMapper);
+    assertThat(map).containsEntry("id", "std1");
+    assertThat((Map<String, Object>) map.get("name")).containsEntry("en", "Study");
+  }
+}
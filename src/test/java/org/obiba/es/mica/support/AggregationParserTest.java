@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.obiba.es.mica.support;
+
+import co.elastic.clients.elasticsearch._types.aggregations.Aggregation;
+import org.junit.Test;
+import org.obiba.mica.spi.search.support.AggregationHelper;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AggregationParserTest {
+
+  private final AggregationParser parser = new AggregationParser();
+
+  @Test
+  public void test_localized_aggregation_per_locale() {
+    Map<String, Aggregation> en = parser.getAggregations(properties(), null, Arrays.asList("en"));
+    Map<String, Aggregation> enFr = parser.getAggregations(properties(), null, Arrays.asList("en", "fr"));
+    assertThat(enFr.size()).isEqualTo(en.size() + 1);
+  }
+
+  @Test
+  public void test_compiled_aggregations_are_reused() {
+    Map<String, Aggregation> first = parser.getAggregations(properties(), null, Arrays.asList("en"));
+    Map<String, Aggregation> second = parser.getAggregations(properties(), null, Arrays.asList("en"));
+    assertThat(second).isSameAs(first);
+  }
+
+  @Test
+  public void test_modified_properties_are_compiled_again() {
+    Properties properties = properties();
+    Map<String, Aggregation> first = parser.getAggregations(properties, null, Arrays.asList("en"));
+    properties.setProperty("studyId" + AggregationHelper.TYPE, AggregationHelper.AGG_TERMS);
+    Map<String, Aggregation> second = parser.getAggregations(properties, null, Arrays.asList("en"));
+    assertThat(second).isNotSameAs(first);
+    assertThat(parser.getAggregations(properties(), null, Arrays.asList("en"))).isSameAs(first);
+  }
+
+  private static Properties properties() {
+    Properties properties = new Properties();
+    properties.setProperty("name" + AggregationHelper.LOCALIZED, "true");
+    properties.setProperty("studyId" + AggregationHelper.TYPE, AggregationHelper.AGG_STERMS);
+    return properties;
+  }
+}
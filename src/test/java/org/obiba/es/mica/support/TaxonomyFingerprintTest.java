@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2024 OBiBa. All rights reserved.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.obiba.es.mica.support;
+
+import com.google.common.collect.Maps;
+import org.junit.Test;
+import org.obiba.opal.core.domain.taxonomy.Taxonomy;
+import org.obiba.opal.core.domain.taxonomy.Vocabulary;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TaxonomyFingerprintTest {
+
+  @Test
+  public void test_same_content_same_fingerprint() {
+    assertThat(TaxonomyFingerprint.of(taxonomy("false"))).isEqualTo(TaxonomyFingerprint.of(taxonomy("false")));
+  }
+
+  @Test
+  public void test_attribute_modified_in_place_changes_fingerprint() {
+    Taxonomy taxonomy = taxonomy("false");
+    String before = TaxonomyFingerprint.of(taxonomy).toString();
+    taxonomy.getVocabularies().get(0).setAttributes(attributes("true"));
+    assertThat(TaxonomyFingerprint.of(taxonomy).toString()).isNotEqualTo(before);
+  }
+
+  private static Taxonomy taxonomy(String localized) {
+    Vocabulary vocabulary = new Vocabulary();
+    vocabulary.setName("name");
+    vocabulary.setAttributes(attributes(localized));
+    Taxonomy taxonomy = new Taxonomy();
+    taxonomy.setName("Mica_study");
+    taxonomy.addVocabulary(vocabulary);
+    return taxonomy;
+  }
+
+  private static Map<String, String> attributes(String localized) {
+    Map<String, String> attributes = Maps.newHashMap();
+    attributes.put("field", "name");
+    attributes.put("localized", localized);
+    return attributes;
+  }
+}